@@ -0,0 +1,75 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.file.FileStoreHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File transfer: throughput of FileStoreHandler.add, each invocation stores a whole file
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStoreBenchmark
+{
+    private static final int CHUNKS = 16;
+
+    @Param({"4096", "65536", "1048576"})
+    private int chunkSize;
+
+    private File             directory = null;
+    private FileStoreHandler handler   = null;
+    private byte[]           chunk     = null;
+
+    @Setup
+    public void setup()
+            throws IOException
+    {
+        this.directory = Files.createTempDirectory("file-store-benchmark").toFile();
+        this.handler   = new FileStoreHandler(this.directory.getPath());
+        this.chunk     = new byte[this.chunkSize];
+        new Random(0).nextBytes(this.chunk);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        /* the writers must be stopped before their files are deleted */
+        this.handler.destroy();
+
+        File[] files = this.directory.listFiles();
+
+        if (null != files)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+
+        this.directory.delete();
+    }
+
+    /* the score is in chunks per second */
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void add()
+            throws IOException
+    {
+        for (int i = 0; i < CHUNKS; ++ i)
+        {
+            this.handler.add("benchmark.bin", this.chunk, true);
+        }
+
+        /* the last chunk writes the file */
+        this.handler.add("benchmark.bin", null);
+    }
+}
@@ -0,0 +1,51 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.image.JpegEncoder;
+import utils.image.JpegSettings;
+import utils.image.ScreenShotResizer;
+import utils.screen.SyntheticFrameSource;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Convert stage: JPG encoding of a resized 720p frame
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JpegEncodeBenchmark
+{
+    @Param({"0.3", "0.5", "0.75", "0.9"})
+    private float quality;
+
+    @Param({"true", "false"})
+    private boolean chromaSubsampling;
+
+    @Param({"SCROLLING_TEXT", "NOISE", "STATIC"})
+    private SyntheticFrameSource.Pattern pattern;
+
+    private BufferedImage image    = null;
+    private JpegSettings  settings = null;
+
+    @Setup
+    public void setup()
+    {
+        SyntheticFrameSource source = new SyntheticFrameSource(this.pattern, 1920, 1080);
+
+        this.image    = new ScreenShotResizer(720).resize(source.capture(source.getDefaultRegion()));
+        this.settings = new JpegSettings(this.quality, this.chromaSubsampling, false);
+    }
+
+    @Benchmark
+    public byte[] encode()
+            throws IOException
+    {
+        return JpegEncoder.get().encode(this.image, this.settings);
+    }
+}
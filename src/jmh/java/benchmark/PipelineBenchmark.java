@@ -0,0 +1,99 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.image.EncodeMode;
+import utils.image.Frame;
+import utils.image.ScreenShotHandler;
+import utils.screen.SyntheticFrameSource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Whole pipeline: frames per second delivered to a polling client and the capture to encoded latency of each frame
+ * (the captureToEncodedMicros counter, the mean of the iteration).
+ * <p>The requests are not measured, so the adaptive controller keeps its initial settings
+ * (full height, full quality, 30 FPS) and the results do not depend on the pacing of the client</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark
+{
+    private static final long POLL_PERIOD = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Param({"SCROLLING_TEXT", "NOISE", "STATIC"})
+    private SyntheticFrameSource.Pattern pattern;
+
+    @Param({"SINGLE", "PARALLEL_STRIPES"})
+    private EncodeMode encodeMode;
+
+    private ScreenShotHandler handler     = null;
+    private long              lastFrameId = - 1;
+
+    /**
+     * The latency of the frames received during an iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Latency
+    {
+        /* Mean time from the start of the capture to the end of the encoding */
+        public long captureToEncodedMicros = 0;
+
+        private long total  = 0;
+        private long frames = 0;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            this.captureToEncodedMicros = 0;
+            this.total                  = 0;
+            this.frames                 = 0;
+        }
+
+        /**
+         * Add the latency of a received frame
+         *
+         * @param frame The frame
+         */
+        void add(Frame<byte[]> frame)
+        {
+            this.total                 += System.nanoTime() - frame.getCaptureTime();
+            this.captureToEncodedMicros = TimeUnit.NANOSECONDS.toMicros(this.total / ++ this.frames);
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        this.handler = new ScreenShotHandler(720, this.encodeMode, new SyntheticFrameSource(this.pattern, 1920, 1080));
+        this.handler.start();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        this.handler.destroy();
+    }
+
+    @Benchmark
+    public byte[] nextFrame(Latency latency)
+    {
+        Frame<byte[]> frame = this.handler.get(this.lastFrameId, false);
+
+        while (null == frame)
+        {
+            LockSupport.parkNanos(POLL_PERIOD);
+            frame = this.handler.get(this.lastFrameId, false);
+        }
+
+        /* the frame is published when its encoding ends, the poll adds at most POLL_PERIOD */
+        latency.add(frame);
+        this.lastFrameId = frame.getSequence();
+        return frame.getValue();
+    }
+}
@@ -0,0 +1,52 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.image.ScreenShotResizer;
+import utils.screen.SyntheticFrameSource;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resize stage: the pooled resizer at several target heights
+ * (see {@link ResizeReferenceBenchmark} for plain Graphics2D scaling)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResizeBenchmark
+{
+    /* 1080 -> 720 and 1080 -> 540 use the raster fast paths */
+    @Param({"360", "540", "720"})
+    private int height;
+
+    private BufferedImage     screenShot = null;
+    private ScreenShotResizer resizer    = null;
+
+    @Setup
+    public void setup()
+    {
+        SyntheticFrameSource source = new SyntheticFrameSource(SyntheticFrameSource.Pattern.STATIC, 1920, 1080);
+
+        this.screenShot = source.capture(source.getDefaultRegion());
+        this.resizer    = new ScreenShotResizer(this.height);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        this.resizer.clear();
+    }
+
+    @Benchmark
+    public BufferedImage resizer()
+    {
+        BufferedImage resized = this.resizer.resize(this.screenShot);
+
+        this.resizer.release(resized);
+        return resized;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import utils.screen.SyntheticFrameSource;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resize stage reference: plain Graphics2D scaling for each interpolation hint, to compare with
+ * {@link ResizeBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResizeReferenceBenchmark
+{
+    @Param({"360", "540", "720"})
+    private int height;
+
+    @Param({"NEAREST_NEIGHBOR", "BILINEAR", "BICUBIC"})
+    private String interpolation;
+
+    private BufferedImage screenShot = null;
+    private BufferedImage target     = null;
+    private Graphics2D    graph2D    = null;
+
+    @Setup
+    public void setup()
+    {
+        SyntheticFrameSource source = new SyntheticFrameSource(SyntheticFrameSource.Pattern.STATIC, 1920, 1080);
+
+        this.screenShot = source.capture(source.getDefaultRegion());
+        this.target     = new BufferedImage(1920 * this.height / 1080, this.height, BufferedImage.TYPE_INT_RGB);
+        this.graph2D    = this.target.createGraphics();
+        this.graph2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolationHint(this.interpolation));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        this.graph2D.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage drawImage()
+    {
+        this.graph2D.drawImage(this.screenShot, 0, 0, this.target.getWidth(), this.target.getHeight(), null);
+        return this.target;
+    }
+
+    /**
+     * Map the parameter to the rendering hint
+     *
+     * @param name The interpolation name
+     * @return The hint value
+     */
+    private static Object interpolationHint(String name)
+    {
+        switch (name)
+        {
+            case "NEAREST_NEIGHBOR":
+                return RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+            case "BICUBIC":
+                return RenderingHints.VALUE_INTERPOLATION_BICUBIC;
+            default:
+                return RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+        }
+    }
+}
@@ -2,11 +2,11 @@ package main;
 
 import byteremote.common.socket.ProtocolType;
 import byteremote.server.ByteServer;
-import byteremote.server.tcp.ByteTCPServer;
 import byteremote.server.udp.ByteUDPServer;
 import gui.RemoteFrame;
-import remote.Control;
+import remote.ControlHost;
 import utils.log.Log;
+import utils.net.NioByteServer;
 
 import javax.swing.*;
 
@@ -23,8 +23,9 @@ public class ApplicationCore
                                             40002,
                                             40003};
 
-    private ByteServer  byteServer = null;
-    private RemoteFrame mainFrame  = null;
+    private ByteServer  byteServer  = null;
+    private ControlHost controlHost = null;
+    private RemoteFrame mainFrame   = null;
 
     private static final ApplicationCore instance = new ApplicationCore();
 
@@ -80,27 +81,28 @@ public class ApplicationCore
      */
     public boolean startServer(ProtocolType type)
     {
-        Control control = null;
+        ControlHost newControlHost = null;
         try
         {
-            control = new Control();
+            newControlHost = new ControlHost();
         }
         catch (Exception ex)
         {
             ex.printStackTrace();
         }
 
-        if (null == byteServer || null == control)
+        if (null == byteServer && null != newControlHost)
         {
             if (ProtocolType.TCP == type)
             {
                 Log.d(TAG, "startServer: TCP");
-                byteServer = new ByteTCPServer(control, true);
+                /* one selector thread for all the connections instead of a thread per connection */
+                byteServer = new NioByteServer(newControlHost.getControl());
             }
             else
             {
                 Log.d(TAG, "startServer: UDP");
-                byteServer = new ByteUDPServer(control, true);
+                byteServer = new ByteUDPServer(newControlHost.getControl(), true);
                 /* Set timeout to 200 ms */
                 ((ByteUDPServer)byteServer).setDataTimeOut(200);
             }
@@ -110,6 +112,7 @@ public class ApplicationCore
                 try
                 {
                     byteServer.start(port);
+                    controlHost = newControlHost;
                     Log.d(TAG, "startServer: Server started on port: " + port);
                     JOptionPane.showMessageDialog(mainFrame, "Server started.");
                     mainFrame.serverStarted(type);
@@ -122,6 +125,11 @@ public class ApplicationCore
             }
         }
 
+        if (null != newControlHost)
+        {
+            newControlHost.destroy();
+        }
+
         Log.d(TAG, "startServer: Failed to start server");
         JOptionPane.showMessageDialog(mainFrame, "Failed to start server.");
         return false;
@@ -138,6 +146,14 @@ public class ApplicationCore
             {
                 byteServer.stop();
                 byteServer = null;
+
+                if (null != controlHost)
+                {
+                    /* stop the pipeline, save the uploads and release the threads */
+                    controlHost.destroy();
+                    controlHost = null;
+                }
+
                 mainFrame.serverClosed();
                 Log.d(TAG, "stopServer: Server stopped");
                 JOptionPane.showMessageDialog(mainFrame, "Server stopped.");
@@ -1,142 +1,349 @@
 package remote;
 
 import main.ApplicationCore;
+import utils.file.FileReadHandler;
 import utils.file.FileStoreHandler;
+import utils.image.EncodeMode;
+import utils.image.Frame;
 import utils.image.ScreenShotHandler;
+import utils.input.InputEvent;
+import utils.input.InputInjector;
 import utils.jni.VolumeControl;
 import utils.log.Log;
+import utils.screen.ScreenGeometry;
+import utils.stream.FrameStreamServer;
 
 import java.awt.*;
 import java.io.IOException;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class Control implements IControl
 {
     /* Log purpose */
-    private static final String TAG           = "Control";
+    private static final String     TAG             = "Control";
     /* Only height will be used. The width will be computed using the aspect ratio of the image */
-    private static final int    HEIGHT        = 720;
-    private static final String MEDIA_PATH    = "Media";
-    public static final  int    INVALID_TOKEN = - 1;
-
-    private int               token             = INVALID_TOKEN;
-    private boolean           pinged            = false;
-    private Robot             robot             = null;
+    private static final int        HEIGHT          = 720;
+    private static final String     MEDIA_PATH      = "Media";
+    /* The files which can be downloaded by the client */
+    private static final String     SHARED_PATH     = "Shared";
+    /* SINGLE keeps plain JPG frames, PARALLEL_STRIPES scales the encoding on hosts with many cores */
+    private static final EncodeMode ENCODE_MODE     = EncodeMode.SINGLE;
+    public static final  int        INVALID_TOKEN   = - 1;
+    private static final int        MAX_WINDOW      = 16;
+    /* Chunks received while the previous ones are written to disk (per writer thread) */
+    private static final int        WRITE_BEHIND    = 64;
+    private static final int        WRITERS         = 2;
+    /* One controlling client and a few viewers */
+    private static final int        MAX_SESSIONS    = 4;
+    /* Clients without any request for this long are disconnected (system property session.timeout, seconds) */
+    private static final long       SESSION_TIMEOUT = TimeUnit.SECONDS.toNanos(Long.getLong("session.timeout", 5));
+    /* Results of sendFileChunk */
+    private static final int        CHUNK_ACCEPTED  = 1;
+    private static final int        CHUNK_BUSY      = 0;
+    private static final int        CHUNK_ERROR     = - 1;
+
+    private SessionRegistry   sessions          = null;
+    private SessionReaper     sessionReaper     = null;
     private ScreenShotHandler screenShotHandler = null;
     private FileStoreHandler  fileStoreHandler  = null;
+    private FileReadHandler   fileReadHandler   = null;
+    private FrameStreamServer frameStreamServer = null;
+    private InputInjector     inputInjector     = null;
 
-    public Control()
+    Control()
             throws AWTException
     {
-        this.robot             = new Robot();
-        this.screenShotHandler = new ScreenShotHandler(HEIGHT);
-        this.fileStoreHandler  = new FileStoreHandler(MEDIA_PATH);
+        this.sessions          = new SessionRegistry(MAX_SESSIONS);
+        this.screenShotHandler = new ScreenShotHandler(HEIGHT, ENCODE_MODE);
+        this.fileStoreHandler  = new FileStoreHandler(MEDIA_PATH, WRITE_BEHIND, WRITERS);
+        this.fileReadHandler   = new FileReadHandler(SHARED_PATH);
+        this.frameStreamServer = new FrameStreamServer(this.screenShotHandler);
+        this.inputInjector     = new InputInjector(new Robot(), this.screenShotHandler::getCaptureRegion);
+        this.sessionReaper     = new SessionReaper(this.sessions, SESSION_TIMEOUT, this::disconnect);
+        this.inputInjector.start();
+        this.sessionReaper.start();
     }
 
     /**
-     * The method checks the state of the connection and remove the client if the connection is lost
+     * Disconnect the clients and free all the resources. Used when the server is stopped
+     * <p>Info: not public, the public methods can be called by the clients (see ControlHost)</p>
      */
-    private void heartbeat()
+    void destroy()
     {
-        Log.d(TAG, "heartbeat: thread started");
+        this.sessionReaper.destroy();
 
-        while (INVALID_TOKEN != token)
+        for (Session session : this.sessions.getAll())
         {
-            try
+            this.disconnect(session.getToken());
+        }
+
+        this.frameStreamServer.destroy();
+        this.screenShotHandler.destroy();
+        this.inputInjector.destroy();
+        this.fileStoreHandler.destroy();
+        this.fileReadHandler.destroy();
+    }
+
+    @Override
+    public Integer connect(short password)
+    {
+        return this.connect(password, Session.Role.CONTROL);
+    }
+
+    @Override
+    public Integer connectViewer(short password)
+    {
+        return this.connect(password, Session.Role.VIEW_ONLY);
+    }
+
+    /**
+     * Create a session for a client
+     *
+     * @param password The client's password
+     * @param role     The role of the client
+     * @return The token of the session, or INVALID_TOKEN otherwise
+     */
+    private Integer connect(short password, Session.Role role)
+    {
+        Session session = null;
+
+        if (! ApplicationCore.getInstance().clientConnect(password))
+        {
+            Log.e(TAG, "connect: Invalid password");
+            return INVALID_TOKEN;
+        }
+
+        session = this.sessions.create(role);
+
+        if (null == session)
+        {
+            Log.d(TAG, "connect: No session available for role: " + role);
+            return INVALID_TOKEN;
+        }
+
+        Log.d(TAG, "connect: Client connected, role: " + role + ", token generated: " + session.getToken());
+        return session.getToken();
+    }
+
+    @Override
+    public Boolean disconnect(int token)
+    {
+        Session session = this.sessions.remove(token);
+
+        if (null == session)
+        {
+            Log.e(TAG, "disconnect: Invalid token received: " + token);
+            return false;
+        }
+        else
+        {
+            Log.d(TAG, "disconnect: Client disconnected: " + token);
+            this.frameStreamServer.close(token);
+
+            for (String uploadId : session.getUploads())
             {
-                pinged = false;
-                Thread.sleep(5000);
+                this.fileStoreHandler.release(uploadId);
             }
-            catch (Exception ex)
+
+            if (this.sessions.isEmpty())
             {
-                ex.printStackTrace();
+                /* keep the pipeline warm for the next client */
+                this.screenShotHandler.pause();
+                ApplicationCore.getInstance().clientDisconnect();
             }
 
-            if (! pinged)
+            return true;
+        }
+    }
+
+    @Override
+    public byte[] getScreenShot(int token)
+    {
+        Session session = this.sessions.get(token);
+
+        if (null == session)
+        {
+            Log.e(TAG, "getScreenShot: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            Frame<byte[]> frame = null;
+
+            Log.d(TAG, "getScreenShot: Send screenshot");
+
+            if (! this.screenShotHandler.isStarted())
+            {
+                this.screenShotHandler.start();
+            }
+
+            /* the capture adapts to the controlling client */
+            frame = this.screenShotHandler.get(session.getLastFrameId(), session.hasControl());
+
+            if (null == frame)
+            {
+                return null;
+            }
+
+            session.setLastFrameId(frame.getSequence());
+            return frame.getValue();
+        }
+    }
+
+    @Override
+    public byte[] getScreenDelta(int token, long lastFrameId)
+    {
+        Session session = this.sessions.get(token);
+
+        if (null == session)
+        {
+            Log.e(TAG, "getScreenDelta: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            Log.d(TAG, () -> "getScreenDelta: Send screen delta since frame: " + lastFrameId);
+
+            if (! this.screenShotHandler.isStarted())
             {
-                Log.d(TAG, "heartbeat: Client disconnected");
-                this.disconnect(token);
+                this.screenShotHandler.start();
             }
+
+            return this.screenShotHandler.getDelta(lastFrameId, session.hasControl());
         }
+    }
 
-        Log.d(TAG, "heartbeat: thread finished");
+    @Override
+    public Float setScreenQuality(int token, float quality)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "setScreenQuality: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            Log.d(TAG, "setScreenQuality: Quality requested: " + quality);
+            return this.screenShotHandler.setQuality(quality);
+        }
     }
 
     @Override
-    public Integer connect(short password)
+    public Integer startStream(int token, int window)
     {
-        if (INVALID_TOKEN != this.token)
+        Session session = this.sessions.get(token);
+
+        if (null == session)
         {
-            Log.d(TAG, "connect: Client already connected");
+            Log.e(TAG, "startStream: Invalid token received: " + token);
             return INVALID_TOKEN;
         }
         else
         {
-            if (! ApplicationCore.getInstance().clientConnect(password))
+            try
             {
-                Log.e(TAG, "connect: Invalid password");
-                return INVALID_TOKEN;
+                Log.d(TAG, "startStream: window: " + window);
+                return this.frameStreamServer.open(token, Math.max(1, Math.min(MAX_WINDOW, window)),
+                                                   session::touch);
             }
-            else
+            catch (IOException ex)
             {
-                Log.d(TAG, "connect: Client connected");
-                this.token = new Random().nextInt(Integer.MAX_VALUE);
-
-                while (0 == this.token)
-                {
-                    this.token = new Random().nextInt(Integer.MAX_VALUE);
-                }
-
-                new Thread(this::heartbeat).start();
-                Log.d(TAG, "connect: token generated: " + this.token);
-                return this.token;
+                ex.printStackTrace();
+                return INVALID_TOKEN;
             }
         }
     }
 
     @Override
-    public Boolean disconnect(int token)
+    public Boolean stopStream(int token)
     {
-        if (INVALID_TOKEN == token)
+        if (null == this.sessions.get(token))
         {
-            Log.e(TAG, "disconnect: Invalid token received: " + token);
+            Log.e(TAG, "stopStream: Invalid token received: " + token);
             return false;
         }
         else
         {
-            Log.d(TAG, "disconnect: Client disconnected");
-            this.token = INVALID_TOKEN;
-            this.fileStoreHandler.reset();
-            ApplicationCore.getInstance().clientDisconnect();
+            Log.d(TAG, "stopStream: received");
+            this.frameStreamServer.close(token);
             return true;
         }
     }
 
     @Override
-    public byte[] getScreenShot(int token)
+    public int[] getMonitors(int token)
     {
-        if (token != this.token)
+        if (null == this.sessions.get(token))
         {
-            Log.e(TAG, "getScreenShot: Invalid token received: " + token);
+            Log.e(TAG, "getMonitors: Invalid token received: " + token);
             return null;
         }
         else
         {
-            Log.d(TAG, "getScreenShot: Send screenshot");
+            Rectangle[] monitors = ScreenGeometry.getInstance().getMonitorBounds();
+            int[]       bounds   = new int[4 * monitors.length];
 
-            if (! this.screenShotHandler.isStarted())
+            for (int i = 0; i < monitors.length; ++ i)
             {
-                this.screenShotHandler.start();
+                bounds[4 * i]     = monitors[i].x;
+                bounds[4 * i + 1] = monitors[i].y;
+                bounds[4 * i + 2] = monitors[i].width;
+                bounds[4 * i + 3] = monitors[i].height;
             }
 
-            return this.screenShotHandler.get();
+            Log.d(TAG, "getMonitors: " + monitors.length + " monitors");
+            return bounds;
+        }
+    }
+
+    @Override
+    public Boolean selectMonitor(int token, int index)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "selectMonitor: Invalid token received: " + token);
+            return false;
+        }
+        else
+        {
+            Rectangle[] monitors = ScreenGeometry.getInstance().getMonitorBounds();
+
+            if (0 > index || monitors.length <= index)
+            {
+                Log.e(TAG, "selectMonitor: Invalid monitor: " + index);
+                return false;
+            }
+
+            Log.d(TAG, "selectMonitor: " + index);
+            return this.screenShotHandler.setCaptureRegion(monitors[index]);
+        }
+    }
+
+    @Override
+    public Boolean selectCaptureRegion(int token, int x, int y, int width, int height)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "selectCaptureRegion: Invalid token received: " + token);
+            return false;
+        }
+        else
+        {
+            Log.d(TAG, "selectCaptureRegion: [" + x + ", " + y + ", " + width + ", " + height + "]");
+
+            if (0 >= width || 0 >= height)
+            {
+                return this.screenShotHandler.setCaptureRegion(null);
+            }
+
+            return this.screenShotHandler.setCaptureRegion(new Rectangle(x, y, width, height));
         }
     }
 
     @Override
     public void keyPress(int token, int keyValue)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "keyPress: Invalid token received: " + token);
         }
@@ -144,8 +351,8 @@ public class Control implements IControl
         {
             try
             {
-                Log.d(TAG, "keyPress: Key received: " + keyValue);
-                this.robot.keyPress(keyValue);
+                Log.d(TAG, () -> "keyPress: Key received: " + keyValue);
+                this.inputInjector.submit(new InputEvent(InputEvent.KEY_PRESS, 0, keyValue, 0, 0));
             }
             catch (Exception ex)
             {
@@ -157,7 +364,7 @@ public class Control implements IControl
     @Override
     public void keyRelease(int token, int keyValue)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "keyRelease: Invalid token received: " + token);
         }
@@ -165,8 +372,8 @@ public class Control implements IControl
         {
             try
             {
-                Log.d(TAG, "keyRelease: Key received: " + keyValue);
-                this.robot.keyRelease(keyValue);
+                Log.d(TAG, () -> "keyRelease: Key received: " + keyValue);
+                this.inputInjector.submit(new InputEvent(InputEvent.KEY_RELEASE, 0, keyValue, 0, 0));
             }
             catch (Exception ex)
             {
@@ -178,7 +385,7 @@ public class Control implements IControl
     @Override
     public void mousePress(int token, int mouseButton)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "mousePress: Invalid token received: " + token);
         }
@@ -186,8 +393,8 @@ public class Control implements IControl
         {
             try
             {
-                Log.d(TAG, "mousePress: Mouse button received: " + mouseButton);
-                this.robot.mousePress(mouseButton);
+                Log.d(TAG, () -> "mousePress: Mouse button received: " + mouseButton);
+                this.inputInjector.submit(new InputEvent(InputEvent.MOUSE_PRESS, 0, mouseButton, 0, 0));
             }
             catch (Exception ex)
             {
@@ -199,7 +406,7 @@ public class Control implements IControl
     @Override
     public void mouseRelease(int token, int mouseButton)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "mouseRelease: Invalid token received: " + token);
         }
@@ -207,8 +414,8 @@ public class Control implements IControl
         {
             try
             {
-                Log.d(TAG, "mouseRelease: Mouse button received: " + mouseButton);
-                this.robot.mouseRelease(mouseButton);
+                Log.d(TAG, () -> "mouseRelease: Mouse button received: " + mouseButton);
+                this.inputInjector.submit(new InputEvent(InputEvent.MOUSE_RELEASE, 0, mouseButton, 0, 0));
             }
             catch (Exception ex)
             {
@@ -220,7 +427,7 @@ public class Control implements IControl
     @Override
     public void mouseMove(int token, float pX, float pY, boolean isAbsPos)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "mouseMove: Invalid token received: " + token);
         }
@@ -228,25 +435,36 @@ public class Control implements IControl
         {
             try
             {
-                Log.d(TAG, "mouseMove: Position: [" + pX + ", " + pY + "] absolute: " + isAbsPos);
+                Log.d(TAG, () -> "mouseMove: Position: [" + pX + ", " + pY + "] absolute: " + isAbsPos);
 
-                if (isAbsPos)
-                {
-                    int x = (int)(pX * Toolkit.getDefaultToolkit().getScreenSize().width);
-                    int y = (int)(pY * Toolkit.getDefaultToolkit().getScreenSize().height);
-
-                    this.robot.mouseMove(x, y);
-                }
-                else
-                {
-                    Point currPos = MouseInfo.getPointerInfo().getLocation();
+                this.inputInjector.submit(new InputEvent(isAbsPos ? InputEvent.MOUSE_MOVE : InputEvent.MOUSE_MOVE_RELATIVE,
+                                                         0, 0, pX, pY));
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+    }
 
-                    this.robot.mouseMove(currPos.x + (int)pX, currPos.y + (int)pY);
-                }
+    @Override
+    public Boolean injectEvents(int token, byte[] packedEvents)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "injectEvents: Invalid token received: " + token);
+            return false;
+        }
+        else
+        {
+            try
+            {
+                return this.inputInjector.submitAll(InputEvent.decode(packedEvents));
             }
             catch (Exception ex)
             {
                 ex.printStackTrace();
+                return false;
             }
         }
     }
@@ -254,21 +472,21 @@ public class Control implements IControl
     @Override
     public void mouseScroll(int token, short direction)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "mouseScroll: Invalid token received: " + token);
         }
         else
         {
-            Log.d(TAG, "mouseScroll: direction: " + direction);
-            this.robot.mouseWheel(direction);
+            Log.d(TAG, () -> "mouseScroll: direction: " + direction);
+            this.inputInjector.submit(new InputEvent(InputEvent.MOUSE_SCROLL, 0, direction, 0, 0));
         }
     }
 
     @Override
     public void changeVolume(int token, float delta)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "changeVolume: Invalid token received: " + token);
         }
@@ -282,17 +500,193 @@ public class Control implements IControl
     @Override
     public Boolean sendFile(int token, String fileName, byte[] fileChunk)
     {
-        if (token != this.token)
+        /* the clients of this method do not send a chunk again, so it waits for room in the write queue */
+        return CHUNK_ACCEPTED == this.receiveFileChunk(token, fileName, fileChunk, true);
+    }
+
+    @Override
+    public Integer sendFileChunk(int token, String fileName, byte[] fileChunk)
+    {
+        return this.receiveFileChunk(token, fileName, fileChunk, false);
+    }
+
+    /**
+     * Store a chunk of a file sent with sendFile or sendFileChunk
+     *
+     * @param token     received token
+     * @param fileName  Name of the file
+     * @param fileChunk The chunk, or null if the file is complete
+     * @param wait      true to wait (bounded) for room in the write queue instead of refusing the chunk
+     * @return CHUNK_ACCEPTED, CHUNK_BUSY or CHUNK_ERROR
+     */
+    private int receiveFileChunk(int token, String fileName, byte[] fileChunk, boolean wait)
+    {
+        Session session = this.sessions.getController(token);
+
+        if (null == session)
         {
             Log.e(TAG, "sendFile: Invalid token received: " + token);
+            return CHUNK_ERROR;
+        }
+        else
+        {
+            try
+            {
+                Log.d(TAG, () -> "sendFile: Received chunk for: " + fileName);
+
+                if (null == fileChunk)
+                {
+                    /* the file is complete */
+                    session.removeUpload(fileName);
+                }
+                else
+                {
+                    session.addUpload(fileName);
+                }
+
+                return this.fileStoreHandler.add(fileName, fileChunk, wait) ? CHUNK_ACCEPTED : CHUNK_BUSY;
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return CHUNK_ERROR;
+            }
+        }
+    }
+
+    @Override
+    public String beginUpload(int token, String fileName, long size)
+    {
+        Session session = this.sessions.getController(token);
+
+        if (null == session)
+        {
+            Log.e(TAG, "beginUpload: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            try
+            {
+                String uploadId = this.fileStoreHandler.beginUpload(fileName, size);
+
+                session.addUpload(uploadId);
+                return uploadId;
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Integer setUploadCompression(int token, String uploadId, int compressionId, byte[] sample)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "setUploadCompression: Invalid token received: " + token);
+            return - 1;
+        }
+        else
+        {
+            try
+            {
+                return this.fileStoreHandler.setUploadCompression(uploadId, compressionId, sample).getId();
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return - 1;
+            }
+        }
+    }
+
+    @Override
+    public Long writeChunk(int token, String uploadId, long offset, byte[] data, int crc32c)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "writeChunk: Invalid token received: " + token);
+            return - 1L;
+        }
+        else
+        {
+            try
+            {
+                /* BUSY asks the client to send the chunk again later */
+                return this.fileStoreHandler.writeChunk(uploadId, offset, data, crc32c);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return - 1L;
+            }
+        }
+    }
+
+    @Override
+    public Long queryUploadOffset(int token, String uploadId)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "queryUploadOffset: Invalid token received: " + token);
+            return - 1L;
+        }
+        else
+        {
+            try
+            {
+                return this.fileStoreHandler.queryUploadOffset(uploadId);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return - 1L;
+            }
+        }
+    }
+
+    @Override
+    public long[] queryMissingRanges(int token, String uploadId)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "queryMissingRanges: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            try
+            {
+                return this.fileStoreHandler.queryMissingRanges(uploadId);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Boolean commitUpload(int token, String uploadId, byte[] sha256)
+    {
+        Session session = this.sessions.getController(token);
+
+        if (null == session)
+        {
+            Log.e(TAG, "commitUpload: Invalid token received: " + token);
             return false;
         }
         else
         {
             try
             {
-                Log.d(TAG, "sendFile: Received chunk for: " + fileName);
-                this.fileStoreHandler.add(fileName, fileChunk);
+                Log.d(TAG, "commitUpload: " + uploadId);
+                this.fileStoreHandler.commitUpload(uploadId, sha256);
+                session.removeUpload(uploadId);
 
                 return true;
             }
@@ -304,17 +698,84 @@ public class Control implements IControl
         }
     }
 
+    @Override
+    public String[] listFiles(int token, String path)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "listFiles: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            try
+            {
+                Log.d(TAG, "listFiles: " + path);
+                return this.fileReadHandler.listFiles(path);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Long getFileSize(int token, String path)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "getFileSize: Invalid token received: " + token);
+            return - 1L;
+        }
+        else
+        {
+            try
+            {
+                return this.fileReadHandler.getFileSize(path);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return - 1L;
+            }
+        }
+    }
+
+    @Override
+    public byte[] readFileChunk(int token, String path, long offset, int length)
+    {
+        if (null == this.sessions.getController(token))
+        {
+            Log.e(TAG, "readFileChunk: Invalid token received: " + token);
+            return null;
+        }
+        else
+        {
+            try
+            {
+                return this.fileReadHandler.readFileChunk(path, offset, length);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                return null;
+            }
+        }
+    }
+
     @Override
     public Boolean ping(int token)
     {
-        if (token != this.token)
+        /* the lookup marks the session as active */
+        if (null == this.sessions.get(token))
         {
             Log.e(TAG, "ping: Invalid token received: " + token);
             return false;
         }
         else
         {
-            this.pinged = true;
             Log.d(TAG, "ping: received");
             return true;
         }
@@ -323,7 +784,7 @@ public class Control implements IControl
     @Override
     public Boolean shutdown(int token)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "shutdown: Invalid token received: " + token);
             return false;
@@ -347,7 +808,7 @@ public class Control implements IControl
     @Override
     public Boolean restart(int token)
     {
-        if (token != this.token)
+        if (null == this.sessions.getController(token))
         {
             Log.e(TAG, "restart: Invalid token received: " + token);
             return false;
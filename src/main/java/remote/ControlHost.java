@@ -0,0 +1,37 @@
+package remote;
+
+import java.awt.*;
+
+/**
+ * Owner of the Control exposed to the clients.
+ * <p>Every public method of the exposed object can be called remotely (the requests are dispatched by name),
+ * so the lifecycle of the Control is kept here, out of the reach of the clients.</p>
+ */
+public class ControlHost
+{
+    private Control control = null;
+
+    public ControlHost()
+            throws AWTException
+    {
+        this.control = new Control();
+    }
+
+    /**
+     * Get the object exposed to the clients
+     *
+     * @return The control
+     */
+    public IControl getControl()
+    {
+        return this.control;
+    }
+
+    /**
+     * Disconnect the clients and free all the resources. Used when the server is stopped
+     */
+    public void destroy()
+    {
+        this.control.destroy();
+    }
+}
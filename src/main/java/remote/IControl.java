@@ -6,7 +6,8 @@ import byteremote.generation.annotation.ByteRemote;
 public interface IControl
 {
     /**
-     * Connect to the remote desktop server
+     * Connect to the remote desktop server as the client which has the control.
+     * <p>Info: Only one client at a time may have the control</p>
      *
      * @param password requested password
      * @return a valid token (greater than 0 for successful connections) or -1 otherwise
@@ -15,6 +16,17 @@ public interface IControl
     public Integer connect(short password)
             throws Exception;
 
+    /**
+     * Connect to the remote desktop server as a viewer, next to the client which has the control.
+     * <p>Info: A viewer may only get the screen (and ping/disconnect), the other methods reject its token</p>
+     *
+     * @param password requested password
+     * @return a valid token (greater than 0 for successful connections) or -1 otherwise
+     * @throws Exception not used
+     */
+    public Integer connectViewer(short password)
+            throws Exception;
+
     /**
      * Disconnect from the remote desktop server
      *
@@ -31,11 +43,96 @@ public interface IControl
      *
      * @param token received token
      * @return The image bytes serialized in byte[] format
+     * (a packed key frame, see utils.image.FramePacket, if the server encodes in parallel stripes)
      * @throws Exception not used
      */
     public byte[] getScreenShot(int token)
             throws Exception;
 
+    /**
+     * Get the tiles of the screen which changed since the last frame received by the client.
+     * <p>Info: Starts the screenShot handler if is needed</p>
+     * <p>The result is a key frame (all the tiles) if the client frame is unknown or older than the last resolution change</p>
+     *
+     * @param token       received token
+     * @param lastFrameId The id of the last frame received (or -1 for none)
+     * @return The packed tiles (see utils.image.FramePacket) or null if there is no newer frame
+     * @throws Exception not used
+     */
+    public byte[] getScreenDelta(int token, long lastFrameId)
+            throws Exception;
+
+    /**
+     * Negotiate the quality of the screen images
+     *
+     * @param token   received token
+     * @param quality The wanted JPG quality (between [0, 1])
+     * @return The quality which will be used by the server, or null for an invalid token
+     * @throws Exception not used
+     */
+    public Float setScreenQuality(int token, float quality)
+            throws Exception;
+
+    /**
+     * Start pushing the screen frames on a dedicated TCP connection, instead of polling getScreenShot.
+     * <p>The client must connect to the returned port and send its token (int). Then it receives
+     * frames as: int length, long sequence, byte[length] frame (same content as getScreenShot),
+     * and acknowledges them by sending the sequence (long) of the last frame processed.</p>
+     *
+     * @param token  received token
+     * @param window The maximum number of frames sent without being acknowledged
+     * @return The port of the stream connection, or -1 in case of failure
+     * @throws Exception not used
+     */
+    public Integer startStream(int token, int window)
+            throws Exception;
+
+    /**
+     * Stop pushing the screen frames and close the stream connection
+     *
+     * @param token received token
+     * @return true for success and false otherwise
+     * @throws Exception not used
+     */
+    public Boolean stopStream(int token)
+            throws Exception;
+
+    /**
+     * Get the monitors of the server
+     *
+     * @param token received token
+     * @return The bounds of each monitor, as x, y, width, height (4 values per monitor, the default one first),
+     * or null for an invalid token
+     * @throws Exception not used
+     */
+    public int[] getMonitors(int token)
+            throws Exception;
+
+    /**
+     * Capture only a monitor
+     *
+     * @param token received token
+     * @param index The index of the monitor, as returned by getMonitors
+     * @return true for success and false otherwise
+     * @throws Exception not used
+     */
+    public Boolean selectMonitor(int token, int index)
+            throws Exception;
+
+    /**
+     * Capture only a part of the screen. The absolute mouse positions become relative to this region.
+     *
+     * @param token  received token
+     * @param x      The left position of the region, in virtual screen pixels
+     * @param y      The top position of the region, in virtual screen pixels
+     * @param width  The width of the region (0 to capture again the whole default monitor)
+     * @param height The height of the region (0 to capture again the whole default monitor)
+     * @return true for success and false otherwise
+     * @throws Exception not used
+     */
+    public Boolean selectCaptureRegion(int token, int x, int y, int width, int height)
+            throws Exception;
+
     /**
      * Press a key
      *
@@ -80,8 +177,8 @@ public interface IControl
      * Set the mouse position
      *
      * @param token    received token
-     * @param pX       The position of the mouse on Ox calculated in percents
-     * @param pY       The position of the mouse on Oy calculated in percents
+     * @param pX       The position of the mouse on Ox calculated in percents (of the capture region if absolute)
+     * @param pY       The position of the mouse on Oy calculated in percents (of the capture region if absolute)
      * @param isAbsPos true if the inserted position is absolute
      *                 or false if it is relative
      * @throws Exception not used
@@ -99,6 +196,18 @@ public interface IControl
     public void mouseScroll(int token, short direction)
             throws Exception;
 
+    /**
+     * Inject a batch of input events (keys, buttons, moves, scroll), in order.
+     * Used to send in one call all the input gathered by the client during a few milliseconds.
+     *
+     * @param token        received token
+     * @param packedEvents The events, encoded as described by {@link utils.input.InputEvent}
+     * @return true if the events were queued for injection, or false otherwise (none of them is injected)
+     * @throws Exception not used
+     */
+    public Boolean injectEvents(int token, byte[] packedEvents)
+            throws Exception;
+
     /**
      * Change volume adding delta to the current value
      *
@@ -110,7 +219,9 @@ public interface IControl
             throws Exception;
 
     /**
-     * Send a chunk of a file
+     * Send a chunk of a file.
+     * <p>Info: waits for room if the server is busy writing the previous chunks (see sendFileChunk). If the room
+     * does not come in about a second, the upload fails (false) and the file must be sent again</p>
      *
      * @param token     received token
      * @param fileName  Name of the file
@@ -121,6 +232,133 @@ public interface IControl
     public Boolean sendFile(int token, String fileName, byte[] fileChunk)
             throws Exception;
 
+    /**
+     * Send a chunk of a file, without waiting if the server is busy writing the previous chunks
+     *
+     * @param token     received token
+     * @param fileName  Name of the file
+     * @param fileChunk The chunk that will be sent (null once the file is complete)
+     * @return 1 if the chunk was accepted, 0 if the server is busy (the chunk must be sent again later),
+     * or -1 in case of error (the file must be sent again from the start)
+     * @throws Exception not used
+     */
+    public Integer sendFileChunk(int token, String fileName, byte[] fileChunk)
+            throws Exception;
+
+    /**
+     * Start a resumable upload. Calling it again for the same file and size continues the saved upload.
+     *
+     * @param token    received token
+     * @param fileName Name of the file (without directories)
+     * @param size     The size of the file
+     * @return The id of the upload, or null in case of error
+     * @throws Exception not used
+     */
+    public String beginUpload(int token, String fileName, long size)
+            throws Exception;
+
+    /**
+     * Negotiate the compression of a resumable upload, before its first chunk. The compressed chunks start with
+     * an int: the decompressed size (at most 16 MB), or minus the size of the data which follows stored
+     * without compression.
+     *
+     * @param token         received token
+     * @param uploadId      The id returned by beginUpload
+     * @param compressionId The wanted compression: 0 none, 1 DEFLATE (zlib), 2 LZ4 block
+     * @param sample        The first bytes of the file (up to 64 KB), used to skip the compression
+     *                      for data which is already compressed (JPG, MP4, ZIP...)
+     * @return The compression the client must use, or -1 in case of error
+     * @throws Exception not used
+     */
+    public Integer setUploadCompression(int token, String uploadId, int compressionId, byte[] sample)
+            throws Exception;
+
+    /**
+     * Send a chunk of a resumable upload. The chunks may be sent in any order and from several connections.
+     * The chunks which were already received or which do not match their checksum are ignored.
+     *
+     * @param token    received token
+     * @param uploadId The id returned by beginUpload
+     * @param offset   The offset of the (decompressed) chunk in the file
+     * @param data     The chunk (with its header if the upload is compressed)
+     * @param crc32c   The CRC-32C checksum of the chunk, as sent
+     * @return The offset of the first byte not received yet, -2 if the server is busy
+     * (the chunk must be sent again later), or -1 in case of error
+     * @throws Exception not used
+     */
+    public Long writeChunk(int token, String uploadId, long offset, byte[] data, int crc32c)
+            throws Exception;
+
+    /**
+     * Get the offset from which a resumable upload continues (after a reconnect)
+     *
+     * @param token    received token
+     * @param uploadId The id returned by beginUpload
+     * @return The offset, or -1 if the upload is unknown
+     * @throws Exception not used
+     */
+    public Long queryUploadOffset(int token, String uploadId)
+            throws Exception;
+
+    /**
+     * Get the parts of a resumable upload which were not received yet
+     *
+     * @param token    received token
+     * @param uploadId The id returned by beginUpload
+     * @return The missing ranges as start/end (exclusive) pairs, or null if the upload is unknown
+     * @throws Exception not used
+     */
+    public long[] queryMissingRanges(int token, String uploadId)
+            throws Exception;
+
+    /**
+     * Finish a resumable upload
+     *
+     * @param token    received token
+     * @param uploadId The id returned by beginUpload
+     * @param sha256   The SHA-256 hash of the whole file (null to skip the check)
+     * @return true if the file was stored, or false if it is incomplete or corrupted
+     * (a corrupted upload continues from offset 0)
+     * @throws Exception not used
+     */
+    public Boolean commitUpload(int token, String uploadId, byte[] sha256)
+            throws Exception;
+
+    /**
+     * List a directory of the files shared by the server
+     *
+     * @param token received token
+     * @param path  The directory, relative to the shared root ("" for the root)
+     * @return The sorted names of the entries (the directories end with '/'), or null in case of error
+     * @throws Exception not used
+     */
+    public String[] listFiles(int token, String path)
+            throws Exception;
+
+    /**
+     * Get the size of a shared file
+     *
+     * @param token received token
+     * @param path  The file, relative to the shared root
+     * @return The size in bytes, or -1 in case of error
+     * @throws Exception not used
+     */
+    public Long getFileSize(int token, String path)
+            throws Exception;
+
+    /**
+     * Read a chunk of a shared file
+     *
+     * @param token  received token
+     * @param path   The file, relative to the shared root
+     * @param offset The offset of the chunk
+     * @param length The length of the chunk (at most 4 MB)
+     * @return The chunk (shorter at the end of the file, empty after it), or null in case of error
+     * @throws Exception not used
+     */
+    public byte[] readFileChunk(int token, String path, long offset, int length)
+            throws Exception;
+
     /**
      * Method used to check the connection with the server
      *
@@ -0,0 +1,137 @@
+package remote;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of a connected client
+ */
+class Session
+{
+    /**
+     * What a client is allowed to do
+     */
+    enum Role
+    {
+        /* Sees the screen, sends input, transfers files and changes the capture settings */
+        CONTROL,
+        /* Only sees the screen */
+        VIEW_ONLY
+    }
+
+    private final int         token;
+    private final Role        role;
+    /* The uploads started by this client, released when it goes away */
+    private final Set<String> uploads = ConcurrentHashMap.newKeySet();
+
+    /* Any request or stream acknowledgement of the client keeps the session alive */
+    private volatile long lastActivityTime = 0;
+    /* The sequence of the last full frame sent to this client */
+    private volatile long lastFrameId      = - 1;
+
+    Session(int token, Role role)
+    {
+        this.token            = token;
+        this.role             = role;
+        this.lastActivityTime = System.nanoTime();
+    }
+
+    /**
+     * Get the token of the client
+     *
+     * @return The token
+     */
+    int getToken()
+    {
+        return this.token;
+    }
+
+    /**
+     * Get the role of the client
+     *
+     * @return The role
+     */
+    Role getRole()
+    {
+        return this.role;
+    }
+
+    /**
+     * Checks if the client may control the machine
+     *
+     * @return true for the CONTROL role, or false otherwise
+     */
+    boolean hasControl()
+    {
+        return Role.CONTROL == this.role;
+    }
+
+    /**
+     * Record a request or a stream acknowledgement of the client
+     */
+    void touch()
+    {
+        this.lastActivityTime = System.nanoTime();
+    }
+
+    /**
+     * Get the time of the last request (or of the connection)
+     *
+     * @return The time, as given by System.nanoTime()
+     */
+    long getLastActivityTime()
+    {
+        return this.lastActivityTime;
+    }
+
+    /**
+     * Get the sequence of the last full frame sent to the client
+     *
+     * @return The sequence, or -1 if none was sent
+     */
+    long getLastFrameId()
+    {
+        return this.lastFrameId;
+    }
+
+    /**
+     * Set the sequence of the last full frame sent to the client
+     *
+     * @param lastFrameId The sequence
+     */
+    void setLastFrameId(long lastFrameId)
+    {
+        this.lastFrameId = lastFrameId;
+    }
+
+    /**
+     * Remember an upload started by the client
+     *
+     * @param uploadId The id of the upload
+     */
+    void addUpload(String uploadId)
+    {
+        this.uploads.add(uploadId);
+    }
+
+    /**
+     * Forget an upload which was committed
+     *
+     * @param uploadId The id of the upload
+     */
+    void removeUpload(String uploadId)
+    {
+        this.uploads.remove(uploadId);
+    }
+
+    /**
+     * Get the uploads started by the client and not committed
+     *
+     * @return The upload ids
+     */
+    Set<String> getUploads()
+    {
+        return Collections.unmodifiableSet(this.uploads);
+    }
+}
@@ -0,0 +1,98 @@
+package remote;
+
+import utils.log.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Class used to disconnect the clients which stopped sending requests.
+ * <p>A single scheduled thread checks all the sessions, whatever their number. Any request of a client counts
+ * as activity (see {@link SessionRegistry#get(int)}), as well as the acknowledgements of its frame stream,
+ * so ping is needed only by the idle clients.</p>
+ */
+class SessionReaper
+{
+    /* Log purpose */
+    private static final String TAG = "SessionReaper";
+
+    /* The check period is a fraction of the timeout, but not shorter than this */
+    private static final long MIN_CHECK_PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private SessionRegistry          sessions  = null;
+    private IntConsumer              onExpired = null;
+    private long                     timeout   = 0;
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * @param sessions  The sessions to check
+     * @param timeout   The inactivity time after which a session expires, in nanoseconds
+     * @param onExpired Called with the token of each expired session (from the reaper thread)
+     */
+    SessionReaper(SessionRegistry sessions, long timeout, IntConsumer onExpired)
+    {
+        this.sessions  = sessions;
+        this.timeout   = timeout;
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * Start checking the sessions
+     */
+    synchronized void start()
+    {
+        long period = Math.max(MIN_CHECK_PERIOD, this.timeout / 4);
+
+        if (null == this.scheduler)
+        {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+                                                                        {
+                                                                            Thread thread = new Thread(runnable, TAG);
+
+                                                                            thread.setDaemon(true);
+                                                                            return thread;
+                                                                        });
+            this.scheduler.scheduleAtFixedRate(this::reap, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stop checking the sessions
+     */
+    synchronized void destroy()
+    {
+        if (null != this.scheduler)
+        {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Disconnect the sessions without activity for longer than the timeout
+     */
+    private void reap()
+    {
+        long now = System.nanoTime();
+
+        for (Session session : this.sessions.getAll())
+        {
+            if (now - session.getLastActivityTime() > this.timeout)
+            {
+                Log.d(TAG, "reap: Client inactive: " + session.getToken());
+
+                try
+                {
+                    this.onExpired.accept(session.getToken());
+                }
+                catch (Exception ex)
+                {
+                    /* an exception would cancel the next checks */
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package remote;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connected clients, by token.
+ * <p>Lookups are lock-free (they happen on every request), only the connections are serialized to enforce
+ * the session limit and the single CONTROL session.</p>
+ */
+class SessionRegistry
+{
+    private final ConcurrentHashMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final Random                              random   = new Random();
+
+    private int maxSessions = 0;
+
+    /**
+     * @param maxSessions The maximum number of connected clients
+     */
+    SessionRegistry(int maxSessions)
+    {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Create a session with a new token
+     *
+     * @param role The role of the client
+     * @return The session, or null if there are too many sessions or if another client has the control
+     */
+    synchronized Session create(Session.Role role)
+    {
+        Session session = null;
+
+        if (this.sessions.size() >= this.maxSessions
+            || (Session.Role.CONTROL == role && this.sessions.values().stream().anyMatch(Session::hasControl)))
+        {
+            return null;
+        }
+
+        do
+        {
+            session = new Session(1 + this.random.nextInt(Integer.MAX_VALUE - 1), role);
+        }
+        while (null != this.sessions.putIfAbsent(session.getToken(), session));
+
+        return session;
+    }
+
+    /**
+     * Get the session of a token, marking it as active
+     *
+     * @param token The token
+     * @return The session, or null if the token is not connected
+     */
+    Session get(int token)
+    {
+        Session session = this.sessions.get(token);
+
+        if (null != session)
+        {
+            session.touch();
+        }
+
+        return session;
+    }
+
+    /**
+     * Get the session of a token if it has the control, marking it as active
+     *
+     * @param token The token
+     * @return The session, or null if the token is not connected or is view only
+     */
+    Session getController(int token)
+    {
+        Session session = this.get(token);
+
+        return null != session && session.hasControl() ? session : null;
+    }
+
+    /**
+     * Remove the session of a token
+     *
+     * @param token The token
+     * @return The removed session, or null if the token was not connected
+     */
+    Session remove(int token)
+    {
+        return this.sessions.remove(token);
+    }
+
+    /**
+     * Get all the sessions
+     *
+     * @return A live view of the sessions
+     */
+    Collection<Session> getAll()
+    {
+        return this.sessions.values();
+    }
+
+    /**
+     * Checks if no client is connected
+     *
+     * @return true if there are no sessions, or false otherwise
+     */
+    boolean isEmpty()
+    {
+        return this.sessions.isEmpty();
+    }
+}
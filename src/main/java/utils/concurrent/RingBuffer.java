@@ -0,0 +1,243 @@
+package utils.concurrent;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue backed by a ring of slots.
+ * <p>Each slot has a sequence number telling if it can be written by the producer of a lap or read by the
+ * consumer. Producers claim a position with a CAS on the tail, so offer() never blocks and fails when the ring
+ * is full. The consumer is parked only when the ring is empty.</p>
+ * <p>Info: Supports any number of producers but a single consumer (poll(), peek(), take())</p>
+ *
+ * @param <E> The type of the elements
+ */
+public class RingBuffer<E>
+{
+    private final Object[]        slots;
+    private final AtomicLongArray sequences;
+    private final int             mask;
+    /* The next position claimed by a producer */
+    private final AtomicLong      tail = new AtomicLong();
+
+    /* The next position read by the consumer */
+    private long head = 0;
+
+    /* The consumer thread, set only while it is about to park */
+    private volatile Thread waiter = null;
+
+    /**
+     * @param capacity The maximum number of elements (rounded up to a power of 2)
+     */
+    public RingBuffer(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+        this.slots     = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask      = size - 1;
+
+        for (int i = 0; i < size; ++ i)
+        {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an element at the end of the queue
+     *
+     * @param element The element (not null)
+     * @return true if the element was added, or false if the queue is full
+     */
+    public boolean offer(E element)
+    {
+        long position = this.tail.get();
+        int  index    = 0;
+
+        while (true)
+        {
+            long sequence = 0;
+
+            index    = (int)position & this.mask;
+            sequence = this.sequences.get(index);
+
+            if (sequence == position)
+            {
+                if (this.tail.compareAndSet(position, position + 1))
+                {
+                    break;
+                }
+
+                position = this.tail.get();
+            }
+            else if (sequence < position)
+            {
+                /* the consumer did not free the slot of the previous lap yet */
+                return false;
+            }
+            else
+            {
+                /* another producer claimed this position */
+                position = this.tail.get();
+            }
+        }
+
+        this.slots[index] = element;
+        /* publish the element, the consumer reads the slot only after seeing this sequence */
+        this.sequences.set(index, position + 1);
+
+        Thread consumer = this.waiter;
+
+        if (null != consumer)
+        {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Add several elements at the end of the queue, in order and without elements of other producers between them
+     *
+     * @param elements The elements (not null)
+     * @return true if the elements were added, or false if there is not enough room for all of them
+     * (nothing is added in this case)
+     */
+    public boolean offerAll(List<? extends E> elements)
+    {
+        long position = this.tail.get();
+        int  count    = elements.size();
+
+        if (count > this.slots.length)
+        {
+            return false;
+        }
+
+        while (0 < count)
+        {
+            /* the slots are freed in order, so the others are free if the last one is */
+            long last     = position + count - 1;
+            long sequence = this.sequences.get((int)last & this.mask);
+
+            if (sequence == last)
+            {
+                if (this.tail.compareAndSet(position, position + count))
+                {
+                    break;
+                }
+
+                position = this.tail.get();
+            }
+            else if (sequence < last)
+            {
+                /* the consumer did not free the slots of the previous lap yet */
+                return false;
+            }
+            else
+            {
+                /* another producer claimed these positions */
+                position = this.tail.get();
+            }
+        }
+
+        for (int i = 0; i < count; ++ i)
+        {
+            int index = (int)(position + i) & this.mask;
+
+            this.slots[index] = elements.get(i);
+            this.sequences.set(index, position + i + 1);
+        }
+
+        Thread consumer = this.waiter;
+
+        if (null != consumer)
+        {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove the first element
+     *
+     * @return The element, or null if the queue is empty
+     */
+    public E poll()
+    {
+        int index   = (int)this.head & this.mask;
+        E   element = this.peek();
+
+        if (null != element)
+        {
+            this.slots[index] = null;
+            /* free the slot for the next lap */
+            this.sequences.set(index, this.head + this.slots.length);
+            ++ this.head;
+        }
+
+        return element;
+    }
+
+    /**
+     * Get the first element without removing it
+     *
+     * @return The element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E peek()
+    {
+        int index = (int)this.head & this.mask;
+
+        if (this.sequences.get(index) != this.head + 1)
+        {
+            return null;
+        }
+
+        return (E)this.slots[index];
+    }
+
+    /**
+     * Remove the first element, waiting until there is one
+     *
+     * @return The element
+     * @throws InterruptedException In case that the calling thread is interrupted
+     */
+    public E take()
+            throws InterruptedException
+    {
+        E element = null;
+
+        while (null == (element = this.poll()))
+        {
+            this.waiter = Thread.currentThread();
+
+            /* check again after publishing the waiter, a producer may have missed it */
+            if (null == this.peek())
+            {
+                LockSupport.park(this);
+            }
+
+            this.waiter = null;
+
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+
+        return element;
+    }
+
+    /**
+     * Get the maximum number of elements
+     *
+     * @return The capacity
+     */
+    public int getCapacity()
+    {
+        return this.slots.length;
+    }
+}
@@ -0,0 +1,228 @@
+package utils.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class used to decode the compressed chunks of an upload.
+ * <p>Chunk layout: int length (big endian), then the data. A positive length is the size of the decompressed
+ * data, a negative one means the -length bytes which follow are stored without compression (used by the client
+ * for the chunks which do not compress).</p>
+ */
+public class ChunkCodec
+{
+    private static final int HEADER_SIZE      = 4;
+    /* Larger decoded chunks are refused, their size comes from the client */
+    public static final  int MAX_DECODED_SIZE = 16 * 1024 * 1024;
+
+    /* Bytes inspected to detect data which is already compressed */
+    public static final  int     SAMPLE_SIZE = 64 * 1024;
+    /* Above this entropy (bits per byte) the data is considered already compressed */
+    private static final double  MAX_ENTROPY = 7.5;
+    /* Signatures of compressed formats: {offset, bytes...} */
+    private static final int[][] SIGNATURES  = {{0, 0xFF, 0xD8, 0xFF},       /* JPEG */
+                                                {0, 0x89, 'P', 'N', 'G'},    /* PNG */
+                                                {0, 'P', 'K', 0x03, 0x04},   /* ZIP, JAR, DOCX */
+                                                {0, 0x1F, 0x8B},             /* GZIP */
+                                                {0, '7', 'z', 0xBC, 0xAF},   /* 7Z */
+                                                {0, 'R', 'a', 'r', '!'},     /* RAR */
+                                                {0, 0x28, 0xB5, 0x2F, 0xFD}, /* ZSTD */
+                                                {0, 0x1A, 0x45, 0xDF, 0xA3}, /* MKV, WEBM */
+                                                {0, 'I', 'D', '3'},          /* MP3 */
+                                                {0, 'O', 'g', 'g', 'S'},     /* OGG */
+                                                {4, 'f', 't', 'y', 'p'}};    /* MP4, MOV */
+
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Decode a chunk
+     *
+     * @param compression The compression of the upload
+     * @param chunk       The chunk, as sent by the client
+     * @return The decompressed data
+     * @throws IOException If the chunk is malformed
+     */
+    public static byte[] decode(Compression compression, byte[] chunk)
+            throws IOException
+    {
+        int    length = getDecodedLength(compression, chunk);
+        byte[] data   = null;
+
+        if (Compression.NONE == compression)
+        {
+            return chunk;
+        }
+
+        if (0 > ByteBuffer.wrap(chunk).getInt())
+        {
+            data = new byte[length];
+            System.arraycopy(chunk, HEADER_SIZE, data, 0, length);
+            return data;
+        }
+
+        data = new byte[length];
+
+        if (Compression.LZ4 == compression)
+        {
+            Lz4.decompress(chunk, HEADER_SIZE, chunk.length - HEADER_SIZE, data);
+        }
+        else
+        {
+            inflate(chunk, data);
+        }
+
+        return data;
+    }
+
+    /**
+     * Get the size of a chunk once decoded
+     *
+     * @param compression The compression of the upload
+     * @param chunk       The chunk, as sent by the client
+     * @return The decompressed size
+     * @throws IOException If the chunk header is malformed, or if the decompressed size is above MAX_DECODED_SIZE
+     */
+    public static int getDecodedLength(Compression compression, byte[] chunk)
+            throws IOException
+    {
+        int length = 0;
+
+        if (Compression.NONE == compression)
+        {
+            return chunk.length;
+        }
+
+        if (HEADER_SIZE > chunk.length)
+        {
+            throw new IOException("Chunk without header");
+        }
+
+        length = ByteBuffer.wrap(chunk).getInt();
+
+        if (0 > length && - length != chunk.length - HEADER_SIZE)
+        {
+            throw new IOException("Invalid stored chunk length: " + length);
+        }
+
+        if (length > MAX_DECODED_SIZE)
+        {
+            throw new IOException("Chunk too large once decoded: " + length + " bytes");
+        }
+
+        return Math.abs(length);
+    }
+
+    /**
+     * Checks if data is already compressed (known format signature or high entropy), so compressing it again
+     * would only waste time
+     *
+     * @param sample The first bytes of the data (SAMPLE_SIZE is enough)
+     * @return true if the data should be sent without compression, or false otherwise
+     */
+    public static boolean isCompressed(byte[] sample)
+    {
+        int[]  histogram = new int[256];
+        int    length    = Math.min(sample.length, SAMPLE_SIZE);
+        double entropy   = 0;
+
+        for (int[] signature : SIGNATURES)
+        {
+            if (matches(sample, signature))
+            {
+                return true;
+            }
+        }
+
+        if (0 == length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++ i)
+        {
+            ++ histogram[sample[i] & 0xFF];
+        }
+
+        for (int count : histogram)
+        {
+            if (0 < count)
+            {
+                double probability = (double)count / length;
+
+                entropy -= probability * Math.log(probability) / Math.log(2);
+            }
+        }
+
+        return entropy > MAX_ENTROPY;
+    }
+
+    /**
+     * Checks if the data starts with a signature
+     *
+     * @param sample    The data
+     * @param signature The offset of the signature, then its bytes
+     * @return true if the signature is present, or false otherwise
+     */
+    private static boolean matches(byte[] sample, int[] signature)
+    {
+        int offset = signature[0];
+
+        if (sample.length < offset + signature.length - 1)
+        {
+            return false;
+        }
+
+        for (int i = 1; i < signature.length; ++ i)
+        {
+            if ((sample[offset + i - 1] & 0xFF) != signature[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Decompress a zlib (DEFLATE) chunk
+     *
+     * @param chunk The chunk, with its header
+     * @param data  The decompressed data, exactly as long as the original data
+     * @throws IOException If the chunk is malformed
+     */
+    private static void inflate(byte[] chunk, byte[] data)
+            throws IOException
+    {
+        Inflater inflater = INFLATERS.get();
+        int      count    = 0;
+
+        inflater.reset();
+        inflater.setInput(chunk, HEADER_SIZE, chunk.length - HEADER_SIZE);
+
+        try
+        {
+            while (count < data.length && ! inflater.finished())
+            {
+                int inflated = inflater.inflate(data, count, data.length - count);
+
+                if (0 == inflated && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+
+                count += inflated;
+            }
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("DEFLATE: " + ex.getMessage(), ex);
+        }
+
+        if (count != data.length)
+        {
+            throw new IOException("DEFLATE: decompressed " + count + " bytes instead of " + data.length);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package utils.file;
+
+/**
+ * The compression of the chunks of an upload, negotiated with the client
+ */
+public enum Compression
+{
+    NONE(0),
+    DEFLATE(1),
+    /* LZ4 block format, faster than DEFLATE but with a lower ratio */
+    LZ4(2);
+
+    private final int id;
+
+    Compression(int id)
+    {
+        this.id = id;
+    }
+
+    /**
+     * Get the id used in the protocol
+     *
+     * @return The id
+     */
+    public int getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * Find a compression by its protocol id
+     *
+     * @param id The id
+     * @return The compression, or null if it is not supported
+     */
+    public static Compression fromId(int id)
+    {
+        for (Compression compression : values())
+        {
+            if (compression.id == id)
+            {
+                return compression;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,109 @@
+package utils.file;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, the one used to check the uploaded chunks.
+ * <p>Java 8 has only CRC-32, so it is computed here with the slicing-by-8 tables (8 bytes per step)</p>
+ */
+public class Crc32c implements Checksum
+{
+    /* Reversed Castagnoli polynomial */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][] TABLES = createTables();
+
+    private int crc = 0xFFFFFFFF;
+
+    /**
+     * Compute the checksum of a byte array
+     *
+     * @param bytes The bytes
+     * @return The checksum
+     */
+    public static int compute(byte[] bytes)
+    {
+        Crc32c checksum = new Crc32c();
+
+        checksum.update(bytes, 0, bytes.length);
+        return (int)checksum.getValue();
+    }
+
+    @Override
+    public void update(int b)
+    {
+        this.crc = (this.crc >>> 8) ^ TABLES[0][(this.crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] bytes, int offset, int length)
+    {
+        int crc = this.crc;
+        int end = offset + length;
+
+        for (; offset + 8 <= end; offset += 8)
+        {
+            int low  = crc ^ ((bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8
+                              | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24);
+            int high = (bytes[offset + 4] & 0xFF) | (bytes[offset + 5] & 0xFF) << 8
+                       | (bytes[offset + 6] & 0xFF) << 16 | (bytes[offset + 7] & 0xFF) << 24;
+
+            crc = TABLES[7][low & 0xFF] ^ TABLES[6][(low >>> 8) & 0xFF]
+                  ^ TABLES[5][(low >>> 16) & 0xFF] ^ TABLES[4][low >>> 24]
+                  ^ TABLES[3][high & 0xFF] ^ TABLES[2][(high >>> 8) & 0xFF]
+                  ^ TABLES[1][(high >>> 16) & 0xFF] ^ TABLES[0][high >>> 24];
+        }
+
+        for (; offset < end; ++ offset)
+        {
+            crc = (crc >>> 8) ^ TABLES[0][(crc ^ bytes[offset]) & 0xFF];
+        }
+
+        this.crc = crc;
+    }
+
+    @Override
+    public long getValue()
+    {
+        return ~ this.crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.crc = 0xFFFFFFFF;
+    }
+
+    /**
+     * Build the slicing-by-8 tables. TABLES[0] is the classic byte table,
+     * TABLES[k] advances the crc of a byte followed by k zero bytes.
+     *
+     * @return The tables
+     */
+    private static int[][] createTables()
+    {
+        int[][] tables = new int[8][256];
+
+        for (int i = 0; i < 256; ++ i)
+        {
+            int crc = i;
+
+            for (int bit = 0; bit < 8; ++ bit)
+            {
+                crc = 0 != (crc & 1) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+
+            tables[0][i] = crc;
+        }
+
+        for (int i = 0; i < 256; ++ i)
+        {
+            for (int k = 1; k < 8; ++ k)
+            {
+                tables[k][i] = (tables[k - 1][i] >>> 8) ^ tables[0][tables[k - 1][i] & 0xFF];
+            }
+        }
+
+        return tables;
+    }
+}
@@ -0,0 +1,360 @@
+package utils.file;
+
+import utils.log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class used to handle the file download on server side. Only the files under the root directory can be read.
+ * <p>The chunks are read with positional FileChannel reads directly into the returned array. The open channels
+ * are kept for the next chunks, and the file is read ahead in the background while it is read sequentially,
+ * so the next chunk is already in the page cache.</p>
+ */
+public class FileReadHandler
+{
+    /* Log purpose */
+    private static final String TAG = "FileReadHandler";
+
+    public static final  int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_OPEN_FILES = 8;
+    /* Bytes read ahead of a sequential reader */
+    private static final int READ_AHEAD     = 8 * 1024 * 1024;
+    private static final int PREFETCH_BLOCK = 256 * 1024;
+
+    private Path            rootPath       = null;
+    private ExecutorService prefetcher     = null;
+    /* Used only by the prefetcher thread */
+    private ByteBuffer      prefetchBuffer = null;
+
+    /* Open files, the least recently used one is closed first */
+    private final LinkedHashMap<Path, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * A file opened for reading
+     */
+    private static class OpenFile
+    {
+        private final FileChannel channel;
+        /* The offset following the last read chunk */
+        private long nextOffset   = 0;
+        /* The end of the bytes read ahead */
+        private long prefetchedTo = 0;
+
+        private OpenFile(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    public FileReadHandler(String root)
+    {
+        this.rootPath       = Paths.get(root).toAbsolutePath().normalize();
+        this.prefetchBuffer = ByteBuffer.allocateDirect(PREFETCH_BLOCK);
+        this.prefetcher     = Executors.newSingleThreadExecutor(runnable ->
+                                                                {
+                                                                    Thread thread = new Thread(runnable, TAG);
+
+                                                                    thread.setDaemon(true);
+                                                                    return thread;
+                                                                });
+
+        try
+        {
+            /* on a fresh install the root does not exist yet, it is listed as empty */
+            Files.createDirectories(this.rootPath);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * List a directory
+     *
+     * @param path The directory, relative to the root ("" for the root)
+     * @return The names of the entries, sorted, the directories ending with '/'
+     * @throws IOException If the path is outside of the root or it is not a directory
+     */
+    public String[] listFiles(String path)
+            throws IOException
+    {
+        File[]   entries = this.resolve(path).toFile().listFiles();
+        String[] names   = null;
+
+        if (null == entries)
+        {
+            throw new IOException("Not a directory: " + path);
+        }
+
+        names = new String[entries.length];
+
+        for (int i = 0; i < entries.length; ++ i)
+        {
+            names[i] = entries[i].isDirectory() ? entries[i].getName() + "/" : entries[i].getName();
+        }
+
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Get the size of a file
+     *
+     * @param path The file, relative to the root
+     * @return The size in bytes
+     * @throws IOException If the path is outside of the root or it is not a file
+     */
+    public long getFileSize(String path)
+            throws IOException
+    {
+        Path file = this.resolve(path);
+
+        if (! Files.isRegularFile(file))
+        {
+            throw new IOException("Not a file: " + path);
+        }
+
+        return Files.size(file);
+    }
+
+    /**
+     * Read a chunk of a file
+     *
+     * @param path   The file, relative to the root
+     * @param offset The offset of the chunk
+     * @param length The length of the chunk, at most MAX_CHUNK_SIZE
+     * @return The chunk (shorter at the end of the file, empty after it)
+     * @throws IOException If the path is outside of the root or the file can not be read
+     */
+    public byte[] readFileChunk(String path, long offset, int length)
+            throws IOException
+    {
+        Path file = this.resolve(path);
+
+        if (0 > offset || 0 > length || MAX_CHUNK_SIZE < length)
+        {
+            throw new IOException("Invalid chunk: " + offset + "+" + length);
+        }
+
+        try
+        {
+            return this.read(file, offset, length);
+        }
+        catch (ClosedChannelException ex)
+        {
+            /* the channel was closed by another reader to make room, open it again */
+            return this.read(file, offset, length);
+        }
+    }
+
+    /**
+     * Close the open files and stop the read ahead
+     */
+    public synchronized void destroy()
+    {
+        this.prefetcher.shutdownNow();
+
+        for (OpenFile openFile : this.openFiles.values())
+        {
+            close(openFile);
+        }
+
+        this.openFiles.clear();
+    }
+
+    /**
+     * Read a chunk and schedule the read ahead of the next ones
+     *
+     * @param file   The file
+     * @param offset The offset of the chunk
+     * @param length The length of the chunk
+     * @return The chunk
+     * @throws IOException If the file can not be read
+     */
+    private byte[] read(Path file, long offset, int length)
+            throws IOException
+    {
+        OpenFile   openFile = this.open(file);
+        long       size     = openFile.channel.size();
+        byte[]     chunk    = new byte[(int)Math.max(0, Math.min(length, size - offset))];
+        ByteBuffer buffer   = ByteBuffer.wrap(chunk);
+        int        count    = 0;
+
+        while (buffer.hasRemaining() && 0 <= count)
+        {
+            count = openFile.channel.read(buffer, offset + buffer.position());
+        }
+
+        if (buffer.hasRemaining())
+        {
+            /* the file was truncated meanwhile */
+            chunk = Arrays.copyOf(chunk, buffer.position());
+        }
+
+        this.readAhead(openFile, offset, chunk.length, size);
+        return chunk;
+    }
+
+    /**
+     * Warm up the page cache with the bytes following a sequential read
+     *
+     * @param openFile The file
+     * @param offset   The offset of the chunk read
+     * @param length   The length of the chunk read
+     * @param size     The size of the file
+     */
+    private void readAhead(OpenFile openFile, long offset, int length, long size)
+    {
+        long start = 0;
+        long end   = 0;
+
+        synchronized (openFile)
+        {
+            boolean sequential = offset == openFile.nextOffset;
+
+            openFile.nextOffset = offset + length;
+
+            if (! sequential || openFile.prefetchedTo - openFile.nextOffset > READ_AHEAD / 2)
+            {
+                return;
+            }
+
+            start                 = Math.max(openFile.nextOffset, openFile.prefetchedTo);
+            end                   = Math.min(size, openFile.nextOffset + READ_AHEAD);
+            openFile.prefetchedTo = end;
+        }
+
+        if (start < end)
+        {
+            long from = start;
+            long to   = end;
+
+            this.prefetcher.execute(() -> this.prefetch(openFile, from, to));
+        }
+    }
+
+    /**
+     * Read (and drop) a range of a file, so it is cached by the operating system
+     *
+     * @param openFile The file
+     * @param start    The first byte
+     * @param end      The byte after the last one
+     */
+    private void prefetch(OpenFile openFile, long start, long end)
+    {
+        ByteBuffer buffer   = this.prefetchBuffer;
+        long       position = start;
+        int        count    = 0;
+
+        try
+        {
+            while (position < end && 0 <= count)
+            {
+                buffer.clear();
+                buffer.limit((int)Math.min(PREFETCH_BLOCK, end - position));
+                count     = openFile.channel.read(buffer, position);
+                position += Math.max(0, count);
+            }
+        }
+        catch (IOException ex)
+        {
+            /* only a hint, the reader will see the error if there is one */
+        }
+    }
+
+    /**
+     * Get the open channel of a file, opening it if needed
+     *
+     * @param file The file
+     * @return The open file
+     * @throws IOException If the file can not be opened
+     */
+    private synchronized OpenFile open(Path file)
+            throws IOException
+    {
+        OpenFile openFile = this.openFiles.get(file);
+
+        if (null != openFile && openFile.channel.isOpen())
+        {
+            return openFile;
+        }
+
+        if (! Files.isRegularFile(file))
+        {
+            throw new IOException("Not a file: " + this.rootPath.relativize(file));
+        }
+
+        openFile = new OpenFile(FileChannel.open(file, StandardOpenOption.READ));
+        this.openFiles.put(file, openFile);
+
+        if (this.openFiles.size() > MAX_OPEN_FILES)
+        {
+            Iterator<OpenFile> eldest = this.openFiles.values().iterator();
+
+            close(eldest.next());
+            eldest.remove();
+        }
+
+        return openFile;
+    }
+
+    /**
+     * Resolve a path relative to the root, refusing the paths which leave it
+     *
+     * @param path The relative path
+     * @return The absolute path
+     * @throws IOException If the path is outside of the root or it does not exist
+     */
+    private Path resolve(String path)
+            throws IOException
+    {
+        Path resolved = this.rootPath.resolve(null == path ? "" : path).normalize();
+
+        if (! resolved.startsWith(this.rootPath))
+        {
+            Log.e(TAG, "resolve: path outside of the root: " + path);
+            throw new IOException("Access denied: " + path);
+        }
+
+        /* symbolic links must not leave the root either */
+        if (! resolved.toRealPath().startsWith(this.rootPath.toRealPath()))
+        {
+            Log.e(TAG, "resolve: link outside of the root: " + path);
+            throw new IOException("Access denied: " + path);
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Close an open file
+     *
+     * @param openFile The file
+     */
+    private static void close(OpenFile openFile)
+    {
+        try
+        {
+            openFile.channel.close();
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+}
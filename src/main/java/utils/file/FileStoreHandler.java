@@ -3,28 +3,81 @@ package utils.file;
 import utils.log.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Class used to handle the file transfer on server side
+ * Class used to handle the file transfer on server side.
+ * <p>The chunks are written to disk as they arrive, so the memory used does not depend on the file size.
+ * With write-behind queues, the chunks are written by a pool of writer threads while the next ones are received.
+ * All the writes of a file go through the same writer, in order. When its queue is full, the chunk is refused
+ * (add() returns false, writeChunk() returns BUSY) and the client must send it again later, unless the caller
+ * chooses to wait for room. The wait is bounded by QUEUE_TIMEOUT, so a stuck disk never parks the receiving
+ * thread (with UDP, the whole server loop) for longer: the write is refused and the upload fails.</p>
+ * <p>Two protocols are supported: add() receives the chunks of a file in order, ended by a null chunk, and
+ * beginUpload()/writeChunk()/commitUpload() receive checked chunks at explicit offsets, in any order and from
+ * several connections at the same time. The second one is resumable: its progress is saved on disk and
+ * survives reset() and restarts of the server.</p>
  */
 public class FileStoreHandler
 {
     /* Log purpose */
     private static final String TAG = "FileStoreHandler";
 
-    private ConcurrentHashMap<String, ArrayList<byte[]>> filesContent = null;
+    /* Returned by writeChunk() when the chunk was refused because the write queue is full */
+    public static final long BUSY = - 2;
+
+    /* Maximum time (milliseconds) a receiving thread waits for room in a write queue */
+    private static final long QUEUE_TIMEOUT = 1000;
+
+    private ConcurrentHashMap<String, Upload> uploads = null;
 
     private String targetDirPath = "";
 
+    /* Single thread writers, each one with its own bounded queue.
+     * Empty if the chunks are written by the receiving thread */
+    private ThreadPoolExecutor[] writers = null;
+
+    /**
+     * A write done by the writer thread
+     */
+    private interface WriteTask
+    {
+        void run()
+                throws IOException;
+    }
+
     public FileStoreHandler(String dir)
     {
-        this.filesContent  = new ConcurrentHashMap<>();
+        this(dir, 0, 0);
+    }
+
+    /**
+     * @param dir                 The directory in which the files are stored
+     * @param writeBehindCapacity The number of chunks which can wait to be written by each writer,
+     *                            or 0 to write them from the receiving thread
+     * @param writerThreads       The number of writer threads (the files are spread over them)
+     */
+    public FileStoreHandler(String dir, int writeBehindCapacity, int writerThreads)
+    {
+        this.uploads       = new ConcurrentHashMap<>();
         this.targetDirPath = dir;
+        this.writers       = new ThreadPoolExecutor[0 < writeBehindCapacity ? Math.max(1, writerThreads) : 0];
+
+        for (int i = 0; i < this.writers.length; ++ i)
+        {
+            /* the chunks are refused before the queue is full, a rejected task is a race (or a wait) and it waits */
+            this.writers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                     new ArrayBlockingQueue<>(writeBehindCapacity),
+                                                     FileStoreHandler::waitForQueue);
+        }
     }
 
     /**
@@ -32,80 +85,608 @@ public class FileStoreHandler
      *
      * @param fileName  Name of the file
      * @param fileChunk The chunk
-     * @throws IOException If any error occurs
+     * @return true if the chunk was accepted, or false if the write queue is full (the chunk must be sent again)
+     * @throws IOException If any error occurs (the incomplete file is deleted, it must be sent again from the start)
+     */
+    public boolean add(String fileName, byte[] fileChunk)
+            throws IOException
+    {
+        return this.add(fileName, fileChunk, false);
+    }
+
+    /**
+     * Add a new chunk
+     *
+     * @param fileName  Name of the file
+     * @param fileChunk The chunk
+     * @param wait      true to wait for room in the write queue (at most QUEUE_TIMEOUT) instead of refusing the chunk
+     * @return true if the chunk was accepted, or false if the write queue is full (the chunk must be sent again)
+     * @throws IOException If any error occurs (the incomplete file is deleted, it must be sent again from the start),
+     *                     or if a resumable upload of the same file is in progress (it is not changed)
+     */
+    public boolean add(String fileName, byte[] fileChunk, boolean wait)
+            throws IOException
+    {
+        /* a resumable upload saved by a previous connection uses the same temporary file */
+        Upload upload = this.findUpload(fileName);
+
+        if (null == upload)
+        {
+            upload = this.addFile(fileName);
+        }
+
+        if (upload.isResumable())
+        {
+            /* its chunks have explicit offsets, appending to it would corrupt the file */
+            throw new IOException("Resumable upload in progress: " + fileName);
+        }
+
+        try
+        {
+            upload.checkError();
+
+            if (null != fileChunk && ! wait && this.isBusy(upload))
+            {
+                return false;
+            }
+
+            this.addFileChunk(fileName, upload, fileChunk);
+        }
+        catch (IOException ex)
+        {
+            /* the chunks of add() have no explicit offset, so a lost one can not be sent again */
+            this.uploads.remove(fileName, upload);
+            this.discard(upload);
+            throw ex;
+        }
+
+        return true;
+    }
+
+    /**
+     * Start a resumable upload, or continue the one started for the same file and size
+     *
+     * @param fileName Name of the file (without directories)
+     * @param size     The size of the file
+     * @return The id of the upload
+     * @throws IOException If the name is invalid or the target directory can not be created
+     */
+    public String beginUpload(String fileName, long size)
+            throws IOException
+    {
+        Upload upload = null;
+
+        if (! isValidName(fileName) || 0 > size)
+        {
+            throw new IOException("Invalid upload: " + fileName + " (" + size + " bytes)");
+        }
+
+        upload = this.findUpload(fileName);
+
+        if (null != upload && upload.isResumable() && size == upload.getSize())
+        {
+            Log.d(TAG, "beginUpload: " + fileName + " resumed at " + upload.getReceived());
+            return fileName;
+        }
+
+        if (null != upload)
+        {
+            /* another file with the same name, start again */
+            this.uploads.remove(fileName, upload);
+            this.discard(upload);
+        }
+
+        this.createTargetDirectory();
+        this.uploads.put(fileName, new Upload(new File(this.targetDirPath + "/" + fileName), size, true));
+        Log.d(TAG, "beginUpload: " + fileName + " (" + size + " bytes)");
+
+        return fileName;
+    }
+
+    /**
+     * Write a chunk of a resumable upload, at any offset. Chunks which were already received, or which do not
+     * match their checksum, are ignored.
+     *
+     * @param uploadId The id returned by beginUpload
+     * @param offset   The offset of the (decompressed) chunk in the file
+     * @param data     The chunk
+     * @param crc32c   The CRC-32C checksum of the chunk (as sent, so compressed if the upload is compressed)
+     * @return The offset of the first missing byte, -1 if the upload is unknown,
+     * or BUSY if the write queue is full (the chunk must be sent again)
+     * @throws IOException If the chunk is invalid, or if a previous write failed
+     *                     (reported once, the chunk which was not written is missing again)
+     */
+    public long writeChunk(String uploadId, long offset, byte[] data, int crc32c)
+            throws IOException
+    {
+        Upload upload = this.findUpload(uploadId);
+
+        if (null == upload)
+        {
+            return - 1;
+        }
+
+        upload.checkError();
+
+        if (this.isBusy(upload))
+        {
+            return BUSY;
+        }
+
+        if (Crc32c.compute(data) != crc32c)
+        {
+            Log.e(TAG, "writeChunk: checksum mismatch for " + uploadId + " at " + offset);
+        }
+        else
+        {
+            Compression compression = upload.getCompression();
+            int         length      = ChunkCodec.getDecodedLength(compression, data);
+
+            if (upload.reserve(offset, length))
+            {
+                /* decoded by the writer, off the receiving thread */
+                this.submit(upload, offset, length, () -> upload.write(offset, ChunkCodec.decode(compression, data)));
+            }
+        }
+
+        return upload.getReceived();
+    }
+
+    /**
+     * Negotiate the compression of the chunks of a resumable upload, before its first chunk.
+     * The compression is refused if the sample shows data which is already compressed.
+     *
+     * @param uploadId      The id returned by beginUpload
+     * @param compressionId The id of the compression wanted by the client
+     * @param sample        The first bytes of the file (up to ChunkCodec.SAMPLE_SIZE), or null
+     * @return The compression the client must use
+     * @throws IOException If the upload is unknown
+     */
+    public Compression setUploadCompression(String uploadId, int compressionId, byte[] sample)
+            throws IOException
+    {
+        Upload      upload      = this.findUpload(uploadId);
+        Compression compression = Compression.fromId(compressionId);
+
+        if (null == upload)
+        {
+            throw new IOException("Unknown upload: " + uploadId);
+        }
+
+        if (null == compression || (null != sample && ChunkCodec.isCompressed(sample)))
+        {
+            compression = Compression.NONE;
+        }
+
+        if (! upload.setCompression(compression))
+        {
+            /* chunks were already sent, keep their compression */
+            compression = upload.getCompression();
+        }
+
+        Log.d(TAG, "setUploadCompression: " + uploadId + ": " + compression);
+        return compression;
+    }
+
+    /**
+     * Get the offset from which a resumable upload continues
+     *
+     * @param uploadId The id returned by beginUpload
+     * @return The offset of the first missing byte, or -1 if the upload is unknown
+     * @throws IOException If the saved upload can not be read
+     */
+    public long queryUploadOffset(String uploadId)
+            throws IOException
+    {
+        Upload upload = this.findUpload(uploadId);
+
+        return null == upload ? - 1 : upload.getReceived();
+    }
+
+    /**
+     * Get the parts of a resumable upload which were not received yet
+     *
+     * @param uploadId The id returned by beginUpload
+     * @return The missing ranges as start/end (exclusive) pairs, or null if the upload is unknown
+     * @throws IOException If the saved upload can not be read
+     */
+    public long[] queryMissingRanges(String uploadId)
+            throws IOException
+    {
+        Upload upload = this.findUpload(uploadId);
+
+        return null == upload ? null : upload.getMissing();
+    }
+
+    /**
+     * Finish a resumable upload: the file is checked and renamed to its name
+     *
+     * @param uploadId The id returned by beginUpload
+     * @param sha256   The SHA-256 hash of the whole file, or null to skip the check
+     * @throws IOException If the upload is unknown or incomplete, or if the file is corrupted
+     *                     (in this case the upload starts again from 0)
      */
-    public void add(String fileName, byte[] fileChunk)
+    public void commitUpload(String uploadId, byte[] sha256)
             throws IOException
     {
-        if (! this.filesContent.containsKey(fileName))
+        Upload upload = this.findUpload(uploadId);
+
+        if (null == upload)
         {
-            this.addFile(fileName);
+            throw new IOException("Unknown upload: " + uploadId);
         }
 
-        this.addFileChunk(fileName, fileChunk);
+        upload.checkError();
+        this.await(upload, () -> upload.commit(sha256));
+        this.uploads.remove(uploadId, upload);
     }
 
     /**
-     * Reset this handler to it's default state
+     * Reset this handler to it's default state. The incomplete files of add() are deleted,
+     * the resumable uploads are saved so they can be continued.
      */
     public void reset()
     {
-        this.filesContent = new ConcurrentHashMap<>();
+        for (String uploadId : this.uploads.keySet())
+        {
+            this.release(uploadId);
+        }
+    }
+
+    /**
+     * Give up an upload of a client which went away. The incomplete file of add() is deleted,
+     * a resumable upload is saved so it can be continued.
+     *
+     * @param uploadId The id returned by beginUpload, or the file name given to add()
+     */
+    public void release(String uploadId)
+    {
+        Upload upload = this.uploads.remove(uploadId);
+
+        if (null != upload && upload.isResumable())
+        {
+            try
+            {
+                this.submit(upload, upload::suspend);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+        else if (null != upload)
+        {
+            this.discard(upload);
+        }
+    }
+
+    /**
+     * Save the resumable uploads, delete the incomplete files of add() and stop the writer threads.
+     * The queued writes are finished first.
+     */
+    public void destroy()
+    {
+        this.reset();
+
+        for (ThreadPoolExecutor writer : this.writers)
+        {
+            writer.shutdown();
+        }
+
+        try
+        {
+            for (ThreadPoolExecutor writer : this.writers)
+            {
+                if (! writer.awaitTermination(5, TimeUnit.SECONDS))
+                {
+                    Log.e(TAG, "destroy: writes still pending after 5 seconds");
+                    writer.shutdownNow();
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
      * Add a new file in the list
      *
      * @param fileName Name of the file
+     * @return The new upload, or the one added for the same name in the meantime
+     * @throws IOException If the name is invalid or the target directory can not be created
      */
-    private void addFile(String fileName)
+    private Upload addFile(String fileName)
+            throws IOException
     {
-        this.filesContent.put(fileName, new ArrayList<>());
+        Upload upload   = null;
+        Upload previous = null;
+
+        if (! isValidName(fileName))
+        {
+            throw new IOException("Invalid file name: " + fileName);
+        }
+
+        this.createTargetDirectory();
+        upload   = new Upload(new File(this.targetDirPath + "/" + fileName), - 1, false);
+        previous = this.uploads.putIfAbsent(fileName, upload);
+
+        return null != previous ? previous : upload;
     }
 
     /**
      * Add a new chunk of a file
      *
      * @param fileName Name of the file
-     * @param chunk    The chunk
+     * @param upload   The upload of the file
+     * @param chunk    The chunk, or null if the file is complete
      * @throws IOException If an IO error occurs
      */
-    private void addFileChunk(String fileName, byte[] chunk)
+    private void addFileChunk(String fileName, Upload upload, byte[] chunk)
             throws IOException
     {
         if (null != chunk)
         {
-            this.filesContent.get(fileName).add(chunk);
+            long offset = upload.append(chunk.length);
+
+            this.submit(upload, offset, chunk.length, () -> upload.write(offset, chunk));
         }
         else
         {
-            this.writeFileToDisk(fileName);
-            this.filesContent.remove(fileName);
+            this.uploads.remove(fileName, upload);
+            this.submit(upload, () -> upload.commit(null));
         }
     }
 
     /**
-     * Write all the content of a file to disk
+     * Get an active upload, or load it from the disk if it was saved by a previous connection
      *
-     * @param fileName Name of the file
-     * @throws IOException If an IO error occurs
+     * @param uploadId The id of the upload
+     * @return The upload, or null if it is unknown
+     * @throws IOException If the saved upload can not be read
      */
-    private void writeFileToDisk(String fileName)
+    private Upload findUpload(String uploadId)
             throws IOException
     {
-        FileOutputStream  outputStream = null;
-        ArrayList<byte[]> fileContent  = this.filesContent.get(fileName);
+        Upload upload   = this.uploads.get(uploadId);
+        Upload previous = null;
 
-        this.createTargetDirectory();
-        outputStream = new FileOutputStream(new File(this.targetDirPath + "/" + fileName));
+        if (null != upload || ! isValidName(uploadId))
+        {
+            return upload;
+        }
+
+        upload = Upload.load(new File(this.targetDirPath + "/" + uploadId));
+
+        if (null == upload)
+        {
+            return null;
+        }
+
+        previous = this.uploads.putIfAbsent(uploadId, upload);
+        return null != previous ? previous : upload;
+    }
+
+    /**
+     * Checks if a name can be used for a file of the target directory
+     *
+     * @param fileName The name
+     * @return true if the name is valid, or false otherwise
+     */
+    private static boolean isValidName(String fileName)
+    {
+        return null != fileName && ! fileName.isEmpty()
+               && ! fileName.contains("/") && ! fileName.contains("\\")
+               && ! ".".equals(fileName) && ! "..".equals(fileName)
+               && ! fileName.endsWith(Upload.PART_SUFFIX) && ! fileName.endsWith(Upload.STATE_SUFFIX);
+    }
+
+    /**
+     * Get the writer of a file. The same file always goes to the same writer, so its writes stay in order
+     *
+     * @param upload The upload
+     * @return The writer, or null if the writes are done by the receiving thread
+     */
+    private ThreadPoolExecutor getWriter(Upload upload)
+    {
+        if (0 == this.writers.length)
+        {
+            return null;
+        }
+
+        /* by name: a new upload of the same file must run after the abort of the previous one */
+        return this.writers[(upload.getTarget().getName().hashCode() & Integer.MAX_VALUE) % this.writers.length];
+    }
+
+    /**
+     * Checks if the write queue of a file is full
+     *
+     * @param upload The upload
+     * @return true if a new chunk must be refused, or false otherwise
+     */
+    private boolean isBusy(Upload upload)
+    {
+        ThreadPoolExecutor writer = this.getWriter(upload);
+
+        return null != writer && 0 == writer.getQueue().remainingCapacity();
+    }
+
+    /**
+     * Delete the temporary files of an upload which was removed from the list
+     *
+     * @param upload The upload
+     */
+    private void discard(Upload upload)
+    {
+        try
+        {
+            this.submit(upload, upload::abort);
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Run a task which writes no chunk on the writer of the file (see below)
+     *
+     * @param upload The upload written
+     * @param task   The task
+     * @throws IOException If the task fails (only when it runs on the calling thread), or if the writer is stopped
+     */
+    private void submit(Upload upload, WriteTask task)
+            throws IOException
+    {
+        this.submit(upload, 0, 0, task);
+    }
+
+    /**
+     * Run a write on the writer of the file, or on the calling thread if there is no write-behind queue
+     *
+     * @param upload The upload written
+     * @param offset The offset of the chunk reserved for the write
+     * @param length The length of the chunk reserved for the write (0 if none)
+     * @param task   The write
+     * @throws IOException If the write fails (only when it runs on the calling thread), or if the writer is stopped.
+     *                     A chunk which is not written is not reserved anymore, so it can be sent again
+     */
+    private void submit(Upload upload, long offset, int length, WriteTask task)
+            throws IOException
+    {
+        ThreadPoolExecutor writer = this.getWriter(upload);
+
+        if (null == writer)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (IOException | RuntimeException | Error ex)
+            {
+                upload.unreserve(offset, length);
+                throw ex;
+            }
+
+            return;
+        }
+
+        try
+        {
+            writer.execute(() ->
+                                {
+                                    try
+                                    {
+                                        task.run();
+                                    }
+                                    catch (IOException ex)
+                                    {
+                                        ex.printStackTrace();
+                                        upload.unreserve(offset, length);
+                                        upload.setError(ex);
+                                    }
+                                    catch (RuntimeException | Error ex)
+                                    {
+                                        /* OutOfMemoryError or a bug, it must not leave the chunk reserved */
+                                        ex.printStackTrace();
+                                        upload.unreserve(offset, length);
+                                        upload.setError(new IOException(ex));
+                                    }
+                                });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            upload.unreserve(offset, length);
+            throw new IOException("Write refused for " + upload.getTarget(), ex);
+        }
+    }
 
-        for (byte[] chunkOfData : fileContent)
+    /**
+     * Run a write after the queued ones and wait for it to finish
+     *
+     * @param upload The upload written
+     * @param task   The write
+     * @throws IOException If the write fails
+     */
+    private void await(Upload upload, WriteTask task)
+            throws IOException
+    {
+        ThreadPoolExecutor writer = this.getWriter(upload);
+        Future<?>          result = null;
+
+        if (null == writer)
+        {
+            this.submit(upload, task);
+            return;
+        }
+
+        try
+        {
+            result = writer.submit(() ->
+                                        {
+                                            task.run();
+                                            return null;
+                                        });
+            result.get();
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException)ex.getCause();
+            }
+
+            throw new IOException(ex.getCause());
+        }
+        catch (InterruptedException ex)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + upload, ex);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            throw new IOException("Write refused for " + upload.getTarget(), ex);
+        }
+    }
+
+    /**
+     * Block the receiving thread until there is room in the write-behind queue, at most QUEUE_TIMEOUT
+     *
+     * @param task     The rejected write
+     * @param executor The writer
+     * @throws RejectedExecutionException If the writer is stopped, if the queue stays full,
+     *                                    or if the thread is interrupted while waiting
+     */
+    private static void waitForQueue(Runnable task, ThreadPoolExecutor executor)
+    {
+        if (executor.isShutdown())
+        {
+            throw new RejectedExecutionException("Writer stopped");
+        }
+
+        try
         {
-            outputStream.write(chunkOfData);
+            if (! executor.getQueue().offer(task, QUEUE_TIMEOUT, TimeUnit.MILLISECONDS))
+            {
+                Log.e(TAG, "waitForQueue: write queue still full after " + QUEUE_TIMEOUT + " ms");
+                throw new RejectedExecutionException("Write queue full");
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for the write queue", ex);
         }
 
-        outputStream.flush();
-        outputStream.close();
+        if (executor.isShutdown() && executor.getQueue().remove(task))
+        {
+            /* stopped while waiting, the task would never run */
+            throw new RejectedExecutionException("Writer stopped");
+        }
     }
 
     /**
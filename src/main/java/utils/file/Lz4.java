@@ -0,0 +1,100 @@
+package utils.file;
+
+import java.io.IOException;
+
+/**
+ * Decoder of the LZ4 block format (https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md)
+ */
+public class Lz4
+{
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * Decompress a block
+     *
+     * @param source       The compressed bytes
+     * @param sourceOffset The offset of the block
+     * @param sourceLength The length of the block
+     * @param target       The decompressed bytes, exactly as long as the original data
+     * @throws IOException If the block is malformed or it does not decompress to target.length bytes
+     */
+    public static void decompress(byte[] source, int sourceOffset, int sourceLength, byte[] target)
+            throws IOException
+    {
+        int input  = sourceOffset;
+        int end    = sourceOffset + sourceLength;
+        int output = 0;
+
+        while (input < end)
+        {
+            int token   = source[input ++] & 0xFF;
+            int literal = token >>> 4;
+            int match   = 0;
+            int offset  = 0;
+
+            /* long lengths continue with bytes until one is not 255 */
+            for (int value = 15 == literal ? 255 : 0; 255 == value; )
+            {
+                if (input >= end)
+                {
+                    throw new IOException("LZ4: truncated literal length");
+                }
+
+                value    = source[input ++] & 0xFF;
+                literal += value;
+            }
+
+            if (0 > literal || literal > end - input || literal > target.length - output)
+            {
+                throw new IOException("LZ4: literals out of bounds");
+            }
+
+            System.arraycopy(source, input, target, output, literal);
+            input  += literal;
+            output += literal;
+
+            if (input == end)
+            {
+                /* the last sequence has only literals */
+                break;
+            }
+
+            if (2 > end - input)
+            {
+                throw new IOException("LZ4: truncated match offset");
+            }
+
+            offset = (source[input] & 0xFF) | (source[input + 1] & 0xFF) << 8;
+            input += 2;
+            match  = (token & 0x0F) + MIN_MATCH;
+
+            /* long lengths continue with bytes until one is not 255 */
+            for (int value = 15 + MIN_MATCH == match ? 255 : 0; 255 == value; )
+            {
+                if (input >= end)
+                {
+                    throw new IOException("LZ4: truncated match length");
+                }
+
+                value  = source[input ++] & 0xFF;
+                match += value;
+            }
+
+            if (0 > match || 0 == offset || offset > output || match > target.length - output)
+            {
+                throw new IOException("LZ4: match out of bounds");
+            }
+
+            /* byte by byte: the match may overlap the bytes it produces */
+            for (int from = output - offset; 0 < match; -- match)
+            {
+                target[output ++] = target[from ++];
+            }
+        }
+
+        if (output != target.length)
+        {
+            throw new IOException("LZ4: decompressed " + output + " bytes instead of " + target.length);
+        }
+    }
+}
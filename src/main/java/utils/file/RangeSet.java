@@ -0,0 +1,238 @@
+package utils.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of byte ranges [start, end) of a file, kept merged.
+ * <p>Info: not thread safe</p>
+ */
+class RangeSet
+{
+    /* start -> end, the ranges never overlap or touch */
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    /**
+     * Add a range, merging it with the ranges it overlaps or touches
+     *
+     * @param start The first byte
+     * @param end   The byte after the last one
+     */
+    void add(long start, long end)
+    {
+        Map.Entry<Long, Long> previous = this.ranges.floorEntry(start);
+        Map.Entry<Long, Long> next     = null;
+
+        if (start >= end)
+        {
+            return;
+        }
+
+        if (null != previous && previous.getValue() >= start)
+        {
+            start = previous.getKey();
+            end   = Math.max(end, previous.getValue());
+        }
+
+        while (null != (next = this.ranges.ceilingEntry(start)) && next.getKey() <= end)
+        {
+            end = Math.max(end, next.getValue());
+            this.ranges.remove(next.getKey());
+        }
+
+        this.ranges.put(start, end);
+    }
+
+    /**
+     * Remove a range, cutting the ranges it overlaps
+     *
+     * @param start The first byte
+     * @param end   The byte after the last one
+     */
+    void remove(long start, long end)
+    {
+        Map.Entry<Long, Long> range = this.ranges.lowerEntry(start);
+
+        if (start >= end)
+        {
+            return;
+        }
+
+        if (null != range && range.getValue() > start)
+        {
+            this.ranges.put(range.getKey(), start);
+
+            if (range.getValue() > end)
+            {
+                this.ranges.put(end, range.getValue());
+            }
+        }
+
+        while (null != (range = this.ranges.ceilingEntry(start)) && range.getKey() < end)
+        {
+            this.ranges.remove(range.getKey());
+
+            if (range.getValue() > end)
+            {
+                this.ranges.put(end, range.getValue());
+            }
+        }
+    }
+
+    /**
+     * Checks if a range is completely inside the set
+     *
+     * @param start The first byte
+     * @param end   The byte after the last one
+     * @return true if every byte of the range is in the set, or false otherwise
+     */
+    boolean contains(long start, long end)
+    {
+        Map.Entry<Long, Long> range = this.ranges.floorEntry(start);
+
+        return start >= end || (null != range && range.getValue() >= end);
+    }
+
+    /**
+     * Get the end of the range which starts at 0
+     *
+     * @return The first byte which is not in the set
+     */
+    long getContiguousEnd()
+    {
+        Long end = this.ranges.get(0L);
+
+        return null == end ? 0 : end;
+    }
+
+    /**
+     * Get the ranges of [0, size) which are not in the set
+     *
+     * @param size The size of the file
+     * @return The missing ranges, as start/end pairs
+     */
+    long[] getMissing(long size)
+    {
+        List<Long> missing  = new ArrayList<>();
+        long       position = 0;
+        long[]     result   = null;
+
+        for (Map.Entry<Long, Long> range : this.ranges.entrySet())
+        {
+            if (range.getKey() >= size)
+            {
+                break;
+            }
+
+            if (range.getKey() > position)
+            {
+                missing.add(position);
+                missing.add(range.getKey());
+            }
+
+            position = range.getValue();
+        }
+
+        if (position < size)
+        {
+            missing.add(position);
+            missing.add(size);
+        }
+
+        result = new long[missing.size()];
+
+        for (int i = 0; i < result.length; ++ i)
+        {
+            result[i] = missing.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove all the ranges
+     */
+    void clear()
+    {
+        this.ranges.clear();
+    }
+
+    /**
+     * Checks if the set has no range
+     *
+     * @return true if the set is empty, or false otherwise
+     */
+    boolean isEmpty()
+    {
+        return this.ranges.isEmpty();
+    }
+
+    /**
+     * Copy the ranges of another set
+     *
+     * @param other The other set
+     */
+    void addAll(RangeSet other)
+    {
+        for (Map.Entry<Long, Long> range : other.ranges.entrySet())
+        {
+            this.add(range.getKey(), range.getValue());
+        }
+    }
+
+    /**
+     * Format the ranges as "start-end,start-end"
+     *
+     * @return The ranges
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<Long, Long> range : this.ranges.entrySet())
+        {
+            if (0 < builder.length())
+            {
+                builder.append(',');
+            }
+
+            builder.append(range.getKey()).append('-').append(range.getValue());
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Parse the ranges formatted by toString()
+     *
+     * @param text The ranges
+     * @return The set
+     * @throws NumberFormatException If the text is not valid
+     */
+    static RangeSet parse(String text)
+    {
+        RangeSet set = new RangeSet();
+
+        for (String range : text.split(","))
+        {
+            int separator = range.indexOf('-');
+
+            if (range.isEmpty())
+            {
+                continue;
+            }
+
+            if (0 > separator)
+            {
+                throw new NumberFormatException("Invalid range: " + range);
+            }
+
+            set.add(Long.parseLong(range.substring(0, separator)), Long.parseLong(range.substring(separator + 1)));
+        }
+
+        return set;
+    }
+}
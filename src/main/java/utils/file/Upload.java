@@ -0,0 +1,539 @@
+package utils.file;
+
+import utils.log.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * A file being received. The chunks are written to a temporary ".part" file,
+ * which is renamed to the target name when the upload is complete.
+ * <p>A resumable upload also saves its progress in a ".part.state" file, so it can be continued
+ * after a reconnect or a restart of the server. Its chunks may arrive in any order: each one is written
+ * at its offset in the temporary file, which is preallocated to the size of the upload.</p>
+ * <p>Info: the chunks are reserved by the receiving threads (reserve/append), then written in order by the writer
+ * of the file, or by the receiving threads themselves if there is no write-behind queue (then different chunks may
+ * be written at the same time). The file is closed only when no write is in progress</p>
+ */
+class Upload
+{
+    /* Log purpose */
+    private static final String TAG = "Upload";
+
+    public static final String PART_SUFFIX  = ".part";
+    public static final String STATE_SUFFIX = ".part.state";
+
+    /* The progress is saved after each STATE_INTERVAL bytes written */
+    private static final long STATE_INTERVAL = 8 * 1024 * 1024;
+    private static final int  HASH_BUFFER    = 1024 * 1024;
+
+    private File        target      = null;
+    private File        partFile    = null;
+    private File        stateFile   = null;
+    private FileChannel channel     = null;
+    /* The size announced by the client, or -1 if it is unknown */
+    private long        size        = - 1;
+    private boolean     resumable   = false;
+    /* The compression of the chunks sent by the client */
+    private Compression compression = Compression.NONE;
+    /* Ranges accepted from the client (maybe not written yet) */
+    private RangeSet    received    = null;
+    /* Ranges written to the temporary file */
+    private RangeSet    written     = null;
+    /* Bytes written since the state was saved */
+    private long        unsaved     = 0;
+    /* Writes in progress outside of the monitor, the file is not closed before they are finished */
+    private int         writing     = 0;
+
+    /* The error of an asynchronous write, reported once on the next call from the client */
+    private IOException error = null;
+
+    /**
+     * The temporary file is created by the first write, so it is ordered with
+     * the previous writes of the same file
+     *
+     * @param target    The file which will be created when the upload is complete
+     * @param size      The size of the file, or -1 if it is unknown
+     * @param resumable true if the progress must be saved
+     */
+    Upload(File target, long size, boolean resumable)
+    {
+        this.target    = target;
+        this.partFile  = new File(target.getPath() + PART_SUFFIX);
+        this.stateFile = new File(target.getPath() + STATE_SUFFIX);
+        this.size      = size;
+        this.resumable = resumable;
+        this.received  = new RangeSet();
+        this.written   = new RangeSet();
+    }
+
+    /**
+     * Load a resumable upload saved by a previous connection
+     *
+     * @param target The file which will be created when the upload is complete
+     * @return The upload, or null if there is no saved upload for this file
+     * @throws IOException If the state file can not be read
+     */
+    static Upload load(File target)
+            throws IOException
+    {
+        Upload     upload = new Upload(target, - 1, true);
+        Properties state  = new Properties();
+
+        if (! upload.stateFile.exists() || ! upload.partFile.exists())
+        {
+            return null;
+        }
+
+        try (InputStream input = new FileInputStream(upload.stateFile))
+        {
+            state.load(input);
+        }
+
+        try
+        {
+            upload.size        = Long.parseLong(state.getProperty("size"));
+            upload.compression = Compression.valueOf(state.getProperty("compression", Compression.NONE.name()));
+            upload.written.addAll(RangeSet.parse(state.getProperty("ranges", "")));
+            upload.received.addAll(upload.written);
+        }
+        catch (IllegalArgumentException | NullPointerException ex)
+        {
+            throw new IOException("Invalid upload state: " + upload.stateFile, ex);
+        }
+
+        Log.d(TAG, "load: " + target + " resumed with " + upload.written + " of " + upload.size + " bytes");
+        return upload;
+    }
+
+    /**
+     * Accept the chunk at the given offset, unless it was already received
+     *
+     * @param offset The offset of the chunk
+     * @param length The length of the chunk
+     * @return true if the chunk must be written, or false if it was already received
+     * @throws IOException If the chunk is outside of the announced size
+     */
+    synchronized boolean reserve(long offset, int length)
+            throws IOException
+    {
+        if (0 > offset || (0 <= this.size && offset + length > this.size))
+        {
+            throw new IOException("Chunk outside of " + this.target + ": " + offset + "+" + length);
+        }
+
+        if (this.received.contains(offset, offset + length))
+        {
+            return false;
+        }
+
+        this.received.add(offset, offset + length);
+        return true;
+    }
+
+    /**
+     * Accept the chunk which follows the received ones
+     *
+     * @param length The length of the chunk
+     * @return The offset of the chunk
+     */
+    synchronized long append(int length)
+    {
+        long offset = this.received.getContiguousEnd();
+
+        this.received.add(offset, offset + length);
+        return offset;
+    }
+
+    /**
+     * Give back a chunk accepted with reserve() or append() which will not be written, so it is missing again
+     *
+     * @param offset The offset of the chunk
+     * @param length The length of the chunk
+     */
+    synchronized void unreserve(long offset, int length)
+    {
+        this.received.remove(offset, offset + length);
+    }
+
+    /**
+     * Get the number of bytes received without gap from the start of the file
+     *
+     * @return The offset of the first missing byte
+     */
+    synchronized long getReceived()
+    {
+        return this.received.getContiguousEnd();
+    }
+
+    /**
+     * Get the parts of the file which were not received yet
+     *
+     * @return The missing ranges, as start/end pairs (empty if the size is unknown)
+     */
+    synchronized long[] getMissing()
+    {
+        return this.received.getMissing(Math.max(0, this.size));
+    }
+
+    /**
+     * Get the file which will be created when the upload is complete
+     *
+     * @return The target file
+     */
+    File getTarget()
+    {
+        return this.target;
+    }
+
+    /**
+     * Set the compression of the chunks. It can be changed only before the first chunk
+     *
+     * @param compression The compression
+     * @return true if the compression was changed, or false if chunks were already received
+     */
+    synchronized boolean setCompression(Compression compression)
+    {
+        if (! this.received.isEmpty())
+        {
+            return false;
+        }
+
+        this.compression = compression;
+        return true;
+    }
+
+    /**
+     * Get the compression of the chunks
+     *
+     * @return The compression
+     */
+    synchronized Compression getCompression()
+    {
+        return this.compression;
+    }
+
+    /**
+     * Checks if the progress of the upload is saved
+     *
+     * @return true if the upload can be resumed
+     */
+    boolean isResumable()
+    {
+        return this.resumable;
+    }
+
+    /**
+     * Get the size announced by the client
+     *
+     * @return The size, or -1 if it is unknown
+     */
+    long getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Write a chunk reserved with reserve() or append()
+     *
+     * @param offset The offset of the chunk
+     * @param chunk  The chunk
+     * @throws IOException If the chunk can not be written
+     */
+    void write(long offset, byte[] chunk)
+            throws IOException
+    {
+        ByteBuffer  buffer   = ByteBuffer.wrap(chunk);
+        FileChannel channel  = null;
+        long        position = offset;
+
+        synchronized (this)
+        {
+            channel = this.open();
+            ++ this.writing;
+        }
+
+        try
+        {
+            /* positional writes of different chunks do not need to be serialized */
+            while (buffer.hasRemaining())
+            {
+                position += channel.write(buffer, position);
+            }
+
+            synchronized (this)
+            {
+                this.written.add(offset, position);
+                this.unsaved += chunk.length;
+
+                if (this.resumable && this.unsaved >= STATE_INTERVAL)
+                {
+                    this.saveState();
+                }
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                -- this.writing;
+
+                if (0 == this.writing)
+                {
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the progress and close the temporary file. The upload can be loaded again with load()
+     */
+    synchronized void suspend()
+    {
+        this.awaitWrites();
+
+        try
+        {
+            if (null != this.channel)
+            {
+                this.saveState();
+                this.channel.close();
+                this.channel = null;
+            }
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Check the file, close it and rename it to the target name (replacing an existing file)
+     *
+     * @param expectedHash The SHA-256 hash of the whole file, or null to skip the check
+     * @throws IOException If the file is incomplete, corrupted or it can not be renamed
+     */
+    synchronized void commit(byte[] expectedHash)
+            throws IOException
+    {
+        this.awaitWrites();
+        this.open();
+
+        if (0 <= this.size && ! this.written.contains(0, this.size))
+        {
+            throw new IOException("Incomplete upload " + this.target + ": " + this.written + " of " + this.size);
+        }
+
+        if (null != expectedHash && ! MessageDigest.isEqual(expectedHash, this.hash()))
+        {
+            this.abort();
+            throw new IOException("Corrupted upload " + this.target + ", it must be sent again");
+        }
+
+        this.channel.close();
+
+        try
+        {
+            Files.move(this.partFile.toPath(), this.target.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException ex)
+        {
+            Files.move(this.partFile.toPath(), this.target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Files.deleteIfExists(this.stateFile.toPath());
+        Log.d(TAG, "commit: " + this.target + " (" + this.written.getContiguousEnd() + " bytes)");
+    }
+
+    /**
+     * Close and delete the temporary files. A resumable upload starts again from 0
+     */
+    synchronized void abort()
+    {
+        this.awaitWrites();
+        this.received.clear();
+        this.written.clear();
+        this.unsaved = 0;
+
+        try
+        {
+            if (null != this.channel)
+            {
+                this.channel.close();
+                this.channel = null;
+            }
+
+            Files.deleteIfExists(this.partFile.toPath());
+            Files.deleteIfExists(this.stateFile.toPath());
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Remember the error of an asynchronous write
+     *
+     * @param error The error
+     */
+    synchronized void setError(IOException error)
+    {
+        this.error = error;
+    }
+
+    /**
+     * Throw the error of a previous asynchronous write, if any. The error is reported only once
+     *
+     * @throws IOException The error
+     */
+    synchronized void checkError()
+            throws IOException
+    {
+        IOException current = this.error;
+
+        if (null != current)
+        {
+            this.error = null;
+            throw new IOException("Previous write failed for " + this.target, current);
+        }
+    }
+
+    /**
+     * Wait for the writes in progress, so the file can be closed
+     * <p>Info: must be called while holding the monitor</p>
+     */
+    private void awaitWrites()
+    {
+        boolean interrupted = false;
+
+        while (0 < this.writing)
+        {
+            try
+            {
+                this.wait();
+            }
+            catch (InterruptedException ex)
+            {
+                /* the file must not be closed under a write, keep waiting */
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Open the temporary file, if it is not already open. A new upload truncates the file
+     * and preallocates it to the announced size.
+     *
+     * @return The channel of the file
+     * @throws IOException If the file can not be opened
+     */
+    private synchronized FileChannel open()
+            throws IOException
+    {
+        if (null == this.channel)
+        {
+            this.channel = FileChannel.open(this.partFile.toPath(), StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            if (this.written.isEmpty())
+            {
+                this.channel.truncate(0);
+            }
+
+            if (0 < this.size && this.channel.size() < this.size)
+            {
+                /* the chunks can be written at any offset without growing the file */
+                this.channel.write(ByteBuffer.allocate(1), this.size - 1);
+            }
+        }
+
+        return this.channel;
+    }
+
+    /**
+     * Flush the written bytes to the disk and save their count in the state file
+     *
+     * @throws IOException If the state can not be saved
+     */
+    private void saveState()
+            throws IOException
+    {
+        Properties state     = new Properties();
+        File       stateTemp = new File(this.stateFile.getPath() + ".tmp");
+
+        if (! this.resumable)
+        {
+            return;
+        }
+
+        /* the state must never count bytes which are not on the disk */
+        this.channel.force(false);
+        state.setProperty("size", Long.toString(this.size));
+        state.setProperty("ranges", this.written.toString());
+        state.setProperty("compression", this.compression.name());
+
+        try (OutputStream output = new FileOutputStream(stateTemp))
+        {
+            state.store(output, null);
+        }
+
+        Files.move(stateTemp.toPath(), this.stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        this.unsaved = 0;
+    }
+
+    /**
+     * Compute the SHA-256 hash of the temporary file
+     *
+     * @return The hash
+     * @throws IOException If the file can not be read
+     */
+    private byte[] hash()
+            throws IOException
+    {
+        ByteBuffer    buffer   = ByteBuffer.allocate(HASH_BUFFER);
+        MessageDigest digest   = null;
+        long          position = 0;
+        int           count    = 0;
+
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IOException(ex);
+        }
+
+        while (0 <= (count = this.channel.read(buffer, position)))
+        {
+            position += count;
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+
+        return digest.digest();
+    }
+}
@@ -0,0 +1,169 @@
+package utils.image;
+
+import utils.log.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to adapt the capture rate, the image height and the JPG quality to what the client consumes.
+ * <p>The client polls synchronously, so the time between the request which received a frame and the next request
+ * is the time needed to transfer and show that frame. The capture rate follows that time, and the quality/height
+ * are lowered step by step while it stays above the target frame period (and raised back when it gets well
+ * under it).</p>
+ */
+public class AdaptiveController
+{
+    /* Log purpose */
+    private static final String TAG = "AdaptiveController";
+
+    private static final long   MIN_CAPTURE_PERIOD = TimeUnit.MILLISECONDS.toNanos(1000 / 30);
+    private static final long   MAX_CAPTURE_PERIOD = TimeUnit.MILLISECONDS.toNanos(1000 / 2);
+    /* The frame period wanted for the client, the quality is lowered while it is not reached */
+    private static final long   TARGET_PERIOD      = TimeUnit.MILLISECONDS.toNanos(1000 / 15);
+    private static final long   ADJUST_INTERVAL    = TimeUnit.SECONDS.toNanos(1);
+    /* Weight of a new sample in the moving averages */
+    private static final double SMOOTHING          = 0.2;
+
+    /* Quality levels, from the best one: {height factor, JPG quality} */
+    private static final float[][] LEVELS = {{1.0f, 1.0f},
+                                             {1.0f, 0.6f},
+                                             {0.75f, 0.6f},
+                                             {0.75f, 0.45f},
+                                             {0.5f, 0.45f},
+                                             {0.5f, 0.3f}};
+
+    private int    maxHeight       = 0;
+    private int    level           = 0;
+    private long   lastRequestTime = 0;
+    private long   lastAdjustTime  = 0;
+    private int    lastPayloadSize = 0;
+    private double transferPeriod  = 0;
+    private double payloadSize     = 0;
+
+    private volatile long  capturePeriod = MIN_CAPTURE_PERIOD;
+    private volatile int   height        = 0;
+    private volatile float quality       = 1.0f;
+
+    public AdaptiveController(int maxHeight)
+    {
+        this.maxHeight = maxHeight;
+        this.height    = maxHeight;
+    }
+
+    /**
+     * Record a client request
+     *
+     * @param payloadSize The size of the frame returned to the client (0 if there was no new frame)
+     */
+    public synchronized void onRequest(int payloadSize)
+    {
+        long now = System.nanoTime();
+
+        if (0 < this.lastPayloadSize && 0 != this.lastRequestTime)
+        {
+            /* this request comes after the client received and processed the previous frame */
+            this.transferPeriod = average(this.transferPeriod, now - this.lastRequestTime);
+            this.payloadSize    = average(this.payloadSize, this.lastPayloadSize);
+            this.capturePeriod  = Math.max(MIN_CAPTURE_PERIOD, Math.min(MAX_CAPTURE_PERIOD, (long)this.transferPeriod));
+
+            if (now - this.lastAdjustTime > ADJUST_INTERVAL)
+            {
+                this.lastAdjustTime = now;
+                this.adjustLevel();
+            }
+        }
+
+        this.lastRequestTime = now;
+        this.lastPayloadSize = payloadSize;
+    }
+
+    /**
+     * Forget the measurements, used when the client changes
+     */
+    public synchronized void reset()
+    {
+        this.level           = 0;
+        this.lastRequestTime = 0;
+        this.lastPayloadSize = 0;
+        this.transferPeriod  = 0;
+        this.payloadSize     = 0;
+        this.capturePeriod   = MIN_CAPTURE_PERIOD;
+        this.applyLevel();
+    }
+
+    /**
+     * Get the time between two captures
+     *
+     * @return The capture period in nanoseconds
+     */
+    public long getCapturePeriod()
+    {
+        return this.capturePeriod;
+    }
+
+    /**
+     * Get the height of the resized images
+     *
+     * @return The height
+     */
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+    /**
+     * Get the highest JPG quality allowed by the current level
+     *
+     * @return The quality, between [0, 1]
+     */
+    public float getQuality()
+    {
+        return this.quality;
+    }
+
+    /**
+     * Lower or raise the quality level depending on the transfer period
+     */
+    private void adjustLevel()
+    {
+        int previousLevel = this.level;
+
+        if (this.transferPeriod > 1.5 * TARGET_PERIOD && this.level < LEVELS.length - 1)
+        {
+            ++ this.level;
+        }
+        else if (this.transferPeriod < 0.5 * TARGET_PERIOD && this.level > 0)
+        {
+            -- this.level;
+        }
+
+        if (previousLevel != this.level)
+        {
+            this.applyLevel();
+            Log.d(TAG, "adjustLevel: transfer period: " + TimeUnit.NANOSECONDS.toMillis((long)this.transferPeriod)
+                       + " ms, payload: " + (int)this.payloadSize + " bytes, height: " + this.height
+                       + ", quality: " + this.quality);
+        }
+    }
+
+    /**
+     * Publish the height and the quality of the current level
+     */
+    private void applyLevel()
+    {
+        this.height  = (int)(LEVELS[this.level][0] * this.maxHeight);
+        this.quality = LEVELS[this.level][1];
+    }
+
+    /**
+     * Exponential moving average
+     *
+     * @param average The current average (0 if there is no sample yet)
+     * @param sample  The new sample
+     * @return The new average
+     */
+    private static double average(double average, double sample)
+    {
+        return 0 == average ? sample : (1 - SMOOTHING) * average + SMOOTHING * sample;
+    }
+}
@@ -0,0 +1,106 @@
+package utils.image;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.util.Arrays;
+
+/**
+ * In memory ImageOutputStream backed by a growable array which is kept between images
+ */
+class ByteArrayImageOutputStream extends ImageOutputStreamImpl
+{
+    private static final int INITIAL_CAPACITY = 256 * 1024;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int    count  = 0;
+
+    /**
+     * Discard the content, keeping the allocated buffer
+     */
+    void clear()
+    {
+        this.count      = 0;
+        this.streamPos  = 0;
+        this.flushedPos = 0;
+        this.bitOffset  = 0;
+    }
+
+    /**
+     * Copy the content
+     *
+     * @return The written bytes
+     */
+    byte[] toByteArray()
+    {
+        return Arrays.copyOf(this.buffer, this.count);
+    }
+
+    @Override
+    public void write(int b)
+    {
+        this.ensureCapacity(this.streamPos + 1);
+        this.buffer[(int)this.streamPos ++] = (byte)b;
+        this.count     = Math.max(this.count, (int)this.streamPos);
+        this.bitOffset = 0;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        this.ensureCapacity(this.streamPos + len);
+        System.arraycopy(b, off, this.buffer, (int)this.streamPos, len);
+        this.streamPos += len;
+        this.count     = Math.max(this.count, (int)this.streamPos);
+        this.bitOffset = 0;
+    }
+
+    @Override
+    public int read()
+    {
+        this.bitOffset = 0;
+
+        if (this.streamPos >= this.count)
+        {
+            return - 1;
+        }
+
+        return this.buffer[(int)this.streamPos ++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        int available = this.count - (int)this.streamPos;
+
+        this.bitOffset = 0;
+
+        if (0 >= available)
+        {
+            return - 1;
+        }
+
+        len = Math.min(len, available);
+        System.arraycopy(this.buffer, (int)this.streamPos, b, off, len);
+        this.streamPos += len;
+
+        return len;
+    }
+
+    @Override
+    public long length()
+    {
+        return this.count;
+    }
+
+    /**
+     * Grow the buffer if needed
+     *
+     * @param capacity The needed capacity
+     */
+    private void ensureCapacity(long capacity)
+    {
+        if (capacity > this.buffer.length)
+        {
+            this.buffer = Arrays.copyOf(this.buffer, (int)Math.max(capacity, 2L * this.buffer.length));
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package utils.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class used to encode only the tiles of a frame which changed since a frame known by the client.
+ * <p>Info: update() must be called from a single thread, getDelta() may be called from any thread</p>
+ */
+public class DeltaFrameEncoder
+{
+    public static final int TILE_SIZE = 64;
+
+    private int      width          = 0;
+    private int      height         = 0;
+    private int      columns        = 0;
+    private int      rows           = 0;
+    private long     frameId        = 0;
+    private long     keyFrameId     = 0;
+    private int[]    previousPixels = null;
+    private int[]    currentPixels  = null;
+    private long[]   tileVersions   = null;
+    private byte[][] tileBytes      = null;
+
+    private AtomicReference<Snapshot> snapshot        = null;
+    private ParallelJpegEncoder       parallelEncoder = null;
+    private List<Integer>             changedTiles    = null;
+
+    /* Set by reset(), the next update() encodes all the tiles */
+    private volatile boolean isResetRequested = false;
+
+    /**
+     * Immutable view of the tiles, published after each changed frame
+     */
+    private static class Snapshot
+    {
+        private final long     frameId;
+        private final long     keyFrameId;
+        private final int      width;
+        private final int      height;
+        private final int      columns;
+        private final long[]   tileVersions;
+        private final byte[][] tileBytes;
+
+        private Snapshot(long frameId, long keyFrameId, int width, int height, int columns,
+                         long[] tileVersions, byte[][] tileBytes)
+        {
+            this.frameId      = frameId;
+            this.keyFrameId   = keyFrameId;
+            this.width        = width;
+            this.height       = height;
+            this.columns      = columns;
+            this.tileVersions = tileVersions;
+            this.tileBytes    = tileBytes;
+        }
+    }
+
+    /**
+     * @param parallelEncoder Encoder used to encode the changed tiles in parallel, or null to encode them
+     *                        on the calling thread
+     */
+    public DeltaFrameEncoder(ParallelJpegEncoder parallelEncoder)
+    {
+        this.snapshot        = new AtomicReference<>();
+        this.parallelEncoder = parallelEncoder;
+        this.changedTiles    = new ArrayList<>();
+    }
+
+    /**
+     * Compare the image with the previous one and encode the changed tiles
+     *
+     * @param image    The new frame
+     * @param sequence The sequence number of the frame (must increase with each call)
+     * @param settings The parameters used to encode the changed tiles
+     * @throws IOException If a tile can not be encoded
+     */
+    public void update(BufferedImage image, long sequence, JpegSettings settings)
+            throws IOException
+    {
+        boolean resolutionChanged = this.isResetRequested
+                                    || image.getWidth() != this.width || image.getHeight() != this.height;
+
+        this.isResetRequested = false;
+
+        if (resolutionChanged)
+        {
+            this.resize(image.getWidth(), image.getHeight());
+        }
+
+        image.getRGB(0, 0, this.width, this.height, this.currentPixels, 0, this.width);
+        this.changedTiles.clear();
+
+        for (int row = 0; row < this.rows; ++ row)
+        {
+            for (int column = 0; column < this.columns; ++ column)
+            {
+                if (resolutionChanged || this.isTileChanged(column, row))
+                {
+                    this.changedTiles.add(row * this.columns + column);
+                }
+            }
+        }
+
+        /* swap pixel buffers */
+        int[] pixels = this.previousPixels;
+        this.previousPixels = this.currentPixels;
+        this.currentPixels  = pixels;
+
+        if (! this.changedTiles.isEmpty())
+        {
+            this.frameId = sequence;
+
+            try
+            {
+                this.encodeTiles(image, settings);
+            }
+            catch (IOException ex)
+            {
+                /* some tiles are stale, force a new key frame on the next update */
+                this.width = 0;
+                throw ex;
+            }
+
+            if (resolutionChanged)
+            {
+                this.keyFrameId = this.frameId;
+            }
+
+            this.snapshot.set(new Snapshot(this.frameId, this.keyFrameId, this.width, this.height, this.columns,
+                                           this.tileVersions.clone(), this.tileBytes.clone()));
+        }
+    }
+
+    /**
+     * Forget the published tiles. getDelta() returns null until the next update(), which encodes a key frame
+     * <p>Info: may be called from any thread</p>
+     */
+    public void reset()
+    {
+        this.isResetRequested = true;
+        this.snapshot.set(null);
+    }
+
+    /**
+     * Get the tiles changed since the given frame
+     *
+     * @param lastFrameId The id of the last frame known by the client (or -1 if none)
+     * @return The packed frame (see {@link FramePacket}), or null if the client already has the last frame
+     */
+    public byte[] getDelta(long lastFrameId)
+    {
+        Snapshot               current  = this.snapshot.get();
+        List<FramePacket.Part> parts    = new ArrayList<>();
+        boolean                keyFrame = false;
+
+        if (null == current || lastFrameId == current.frameId)
+        {
+            return null;
+        }
+
+        /* the frame ids follow the captures, so the age of a client frame does not matter: a delta from any frame
+         * after the last resolution change has at most the tiles of a key frame */
+        keyFrame = lastFrameId < current.keyFrameId || lastFrameId > current.frameId;
+
+        for (int tile = 0; tile < current.tileVersions.length; ++ tile)
+        {
+            if (keyFrame || current.tileVersions[tile] > lastFrameId)
+            {
+                int x = (tile % current.columns) * TILE_SIZE;
+                int y = (tile / current.columns) * TILE_SIZE;
+
+                parts.add(new FramePacket.Part(x, y,
+                                               Math.min(TILE_SIZE, current.width - x),
+                                               Math.min(TILE_SIZE, current.height - y),
+                                               current.tileBytes[tile]));
+            }
+        }
+
+        return FramePacket.pack(keyFrame ? FramePacket.KEY_FRAME : FramePacket.DELTA_FRAME,
+                                current.frameId, current.width, current.height, parts);
+    }
+
+    /**
+     * Reallocate the buffers for a new resolution
+     *
+     * @param width  The new width
+     * @param height The new height
+     */
+    private void resize(int width, int height)
+    {
+        this.width          = width;
+        this.height         = height;
+        this.columns        = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.rows           = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.previousPixels = new int[width * height];
+        this.currentPixels  = new int[width * height];
+        this.tileVersions   = new long[this.columns * this.rows];
+        this.tileBytes      = new byte[this.columns * this.rows][];
+    }
+
+    /**
+     * Checks if a tile differs from the previous frame
+     *
+     * @param column The tile column
+     * @param row    The tile row
+     * @return true if at least one pixel changed, or false otherwise
+     */
+    private boolean isTileChanged(int column, int row)
+    {
+        int startX = column * TILE_SIZE;
+        int endX   = Math.min(startX + TILE_SIZE, this.width);
+        int startY = row * TILE_SIZE;
+        int endY   = Math.min(startY + TILE_SIZE, this.height);
+
+        for (int y = startY; y < endY; ++ y)
+        {
+            int offset = y * this.width;
+
+            for (int x = startX; x < endX; ++ x)
+            {
+                if (this.currentPixels[offset + x] != this.previousPixels[offset + x])
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Encode the changed tiles and mark them as changed in the current frame
+     *
+     * @param image    The frame
+     * @param settings The encoding parameters
+     * @throws IOException If a tile can not be encoded
+     */
+    private void encodeTiles(BufferedImage image, JpegSettings settings)
+            throws IOException
+    {
+        List<BufferedImage> tileImages = new ArrayList<>(this.changedTiles.size());
+        List<byte[]>        encoded    = null;
+
+        for (int tile : this.changedTiles)
+        {
+            int x = (tile % this.columns) * TILE_SIZE;
+            int y = (tile / this.columns) * TILE_SIZE;
+
+            tileImages.add(image.getSubimage(x, y, Math.min(TILE_SIZE, this.width - x), Math.min(TILE_SIZE, this.height - y)));
+        }
+
+        if (null != this.parallelEncoder && 1 < tileImages.size())
+        {
+            encoded = this.parallelEncoder.encodeParts(tileImages, settings);
+        }
+        else
+        {
+            encoded = new ArrayList<>(tileImages.size());
+
+            for (BufferedImage tileImage : tileImages)
+            {
+                encoded.add(JpegEncoder.get().encode(tileImage, settings));
+            }
+        }
+
+        for (int i = 0; i < encoded.size(); ++ i)
+        {
+            this.tileBytes[this.changedTiles.get(i)]    = encoded.get(i);
+            this.tileVersions[this.changedTiles.get(i)] = this.frameId;
+        }
+    }
+}
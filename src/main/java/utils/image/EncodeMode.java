@@ -0,0 +1,12 @@
+package utils.image;
+
+/**
+ * The way the convert stage of the screen pipeline encodes a frame
+ */
+public enum EncodeMode
+{
+    /* The frame is encoded as a single JPG by the convert worker */
+    SINGLE,
+    /* The frame is split in horizontal stripes encoded in parallel, and sent as a FramePacket */
+    PARALLEL_STRIPES
+}
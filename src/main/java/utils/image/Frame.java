@@ -0,0 +1,61 @@
+package utils.image;
+
+/**
+ * A value passed between the stages of the screen pipeline, tagged with the sequence number of the capture
+ *
+ * @param <T> The type of the value
+ */
+public class Frame<T>
+{
+    private final long sequence;
+    private final long captureTime;
+    private final T    value;
+
+    public Frame(long sequence, long captureTime, T value)
+    {
+        this.sequence    = sequence;
+        this.captureTime = captureTime;
+        this.value       = value;
+    }
+
+    /**
+     * Create the frame produced by a stage from the frame it received
+     *
+     * @param source The frame received by the stage
+     * @param value  The value produced by the stage
+     */
+    public Frame(Frame<?> source, T value)
+    {
+        this(source.sequence, source.captureTime, value);
+    }
+
+    /**
+     * Get the sequence number of the capture which produced this frame
+     *
+     * @return The sequence number
+     */
+    public long getSequence()
+    {
+        return this.sequence;
+    }
+
+    /**
+     * Get the time when the capture which produced this frame started
+     *
+     * @return The capture time (System.nanoTime)
+     */
+    public long getCaptureTime()
+    {
+        return this.captureTime;
+    }
+
+    /**
+     * Get the value carried by this frame
+     *
+     * @return The value
+     */
+    public T getValue()
+    {
+        return this.value;
+    }
+}
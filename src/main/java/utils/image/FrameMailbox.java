@@ -0,0 +1,98 @@
+package utils.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single slot hand-off between two pipeline stages.
+ * <p>The producer always overwrites the slot, so the consumer always gets the newest frame.
+ * The consumer is parked only when the slot is empty.</p>
+ * <p>Info: Supports any number of producers but a single consumer</p>
+ *
+ * @param <T> The type of the frame value
+ */
+public class FrameMailbox<T>
+{
+    private final AtomicReference<Frame<T>> slot          = new AtomicReference<>();
+    private final AtomicLong                droppedFrames = new AtomicLong();
+
+    /* The consumer thread, set only while it is about to park */
+    private volatile Thread waiter = null;
+
+    /**
+     * Publish a new frame, replacing the one not consumed yet
+     *
+     * @param frame The frame
+     * @return The replaced frame (which is counted as dropped), or null if the slot was empty
+     */
+    public Frame<T> put(Frame<T> frame)
+    {
+        Frame<T> replaced = this.slot.getAndSet(frame);
+        Thread   consumer = this.waiter;
+
+        if (null != replaced)
+        {
+            this.droppedFrames.incrementAndGet();
+        }
+
+        if (null != consumer)
+        {
+            LockSupport.unpark(consumer);
+        }
+
+        return replaced;
+    }
+
+    /**
+     * Take the newest frame, waiting until one is available
+     *
+     * @return The frame
+     * @throws InterruptedException In case that the calling thread is interrupted
+     */
+    public Frame<T> take()
+            throws InterruptedException
+    {
+        Frame<T> frame = null;
+
+        while (null == (frame = this.slot.getAndSet(null)))
+        {
+            this.waiter = Thread.currentThread();
+
+            /* check again after publishing the waiter, a producer may have missed it */
+            if (null == this.slot.get())
+            {
+                LockSupport.park(this);
+            }
+
+            this.waiter = null;
+
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Take the newest frame if there is one
+     *
+     * @return The frame, or null if the slot is empty
+     */
+    public Frame<T> poll()
+    {
+        return this.slot.getAndSet(null);
+    }
+
+    /**
+     * Get the number of frames replaced before being consumed
+     *
+     * @return The number of dropped frames
+     */
+    public long getDroppedFrames()
+    {
+        return this.droppedFrames.get();
+    }
+}
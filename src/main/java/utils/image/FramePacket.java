@@ -0,0 +1,88 @@
+package utils.image;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Class used to pack a frame made of several encoded parts into a single byte[].
+ * <p>Layout (big endian):</p>
+ * <pre>
+ * byte  type           KEY_FRAME / DELTA_FRAME
+ * long  frameId        id of the frame described by this packet
+ * int   width          full frame width
+ * int   height         full frame height
+ * int   partCount      number of parts which follow
+ * part  [partCount]    int x, int y, int width, int height, int length, byte[length] jpeg
+ * </pre>
+ */
+public class FramePacket
+{
+    /* The packet contains every part of the frame */
+    public static final byte KEY_FRAME   = 0;
+    /* The packet contains only the parts changed since the frame known by the client */
+    public static final byte DELTA_FRAME = 1;
+
+    private static final int HEADER_SIZE      = 1 + 8 + 4 + 4 + 4;
+    private static final int PART_HEADER_SIZE = 4 + 4 + 4 + 4 + 4;
+
+    /**
+     * A rectangular part of a frame, encoded as JPG
+     */
+    public static class Part
+    {
+        private final int    x;
+        private final int    y;
+        private final int    width;
+        private final int    height;
+        private final byte[] bytes;
+
+        public Part(int x, int y, int width, int height, byte[] bytes)
+        {
+            this.x      = x;
+            this.y      = y;
+            this.width  = width;
+            this.height = height;
+            this.bytes  = bytes;
+        }
+    }
+
+    /**
+     * Pack the given parts
+     *
+     * @param type    The packet type
+     * @param frameId The frame id
+     * @param width   The frame width
+     * @param height  The frame height
+     * @param parts   The encoded parts
+     * @return The packet bytes
+     */
+    public static byte[] pack(byte type, long frameId, int width, int height, List<Part> parts)
+    {
+        int size = HEADER_SIZE;
+
+        for (Part part : parts)
+        {
+            size += PART_HEADER_SIZE + part.bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        buffer.put(type);
+        buffer.putLong(frameId);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(parts.size());
+
+        for (Part part : parts)
+        {
+            buffer.putInt(part.x);
+            buffer.putInt(part.y);
+            buffer.putInt(part.width);
+            buffer.putInt(part.height);
+            buffer.putInt(part.bytes.length);
+            buffer.put(part.bytes);
+        }
+
+        return buffer.array();
+    }
+}
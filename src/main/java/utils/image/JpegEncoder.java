@@ -0,0 +1,129 @@
+package utils.image;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Class used to encode images as JPG, reusing the same ImageWriter and output buffer for every image.
+ * <p>Info: An encoder is not thread safe, use {@link #get()} to obtain the encoder of the current thread</p>
+ */
+public class JpegEncoder
+{
+    private static final String METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static final ThreadLocal<JpegEncoder> ENCODERS = ThreadLocal.withInitial(JpegEncoder::new);
+
+    private ImageWriter                writer    = null;
+    private ByteArrayImageOutputStream output    = null;
+    private JPEGImageWriteParam        param     = null;
+    private JpegSettings               settings  = null;
+    private IIOMetadata                metadata  = null;
+    private int                        imageType = - 1;
+
+    private JpegEncoder()
+    {
+        this.writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        this.output = new ByteArrayImageOutputStream();
+    }
+
+    /**
+     * Get the encoder of the calling thread
+     *
+     * @return The encoder
+     */
+    public static JpegEncoder get()
+    {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encode an image
+     *
+     * @param image    The image
+     * @param settings The encoding parameters
+     * @return The JPG bytes
+     * @throws IOException If the image can not be encoded
+     */
+    public byte[] encode(BufferedImage image, JpegSettings settings)
+            throws IOException
+    {
+        this.configure(image, settings);
+        this.output.clear();
+        this.writer.setOutput(this.output);
+
+        try
+        {
+            this.writer.write(null, new IIOImage(image, null, this.metadata), this.param);
+        }
+        finally
+        {
+            this.writer.setOutput(null);
+        }
+
+        return this.output.toByteArray();
+    }
+
+    /**
+     * Build the write parameters and the metadata if the settings or the image type changed
+     *
+     * @param image    The image
+     * @param settings The encoding parameters
+     * @throws IOException If the metadata can not be built
+     */
+    private void configure(BufferedImage image, JpegSettings settings)
+            throws IOException
+    {
+        if (settings == this.settings && image.getType() == this.imageType)
+        {
+            return;
+        }
+
+        this.param = new JPEGImageWriteParam(null);
+        this.param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        this.param.setCompressionQuality(settings.getQuality());
+        this.param.setProgressiveMode(settings.isProgressive() ? ImageWriteParam.MODE_DEFAULT
+                                                               : ImageWriteParam.MODE_DISABLED);
+        this.param.setOptimizeHuffmanTables(settings.isProgressive());
+
+        this.metadata = this.writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), this.param);
+        this.setChromaSubsampling(settings.isChromaSubsampling());
+
+        this.settings  = settings;
+        this.imageType = image.getType();
+    }
+
+    /**
+     * Set the sampling factors of the luma component (the chroma components are always sampled 1x1)
+     *
+     * @param subsampling true for 4:2:0, or false for 4:4:4
+     * @throws IOException If the metadata can not be updated
+     */
+    private void setChromaSubsampling(boolean subsampling)
+            throws IOException
+    {
+        Element  tree       = (Element)this.metadata.getAsTree(METADATA_FORMAT);
+        NodeList components = tree.getElementsByTagName("componentSpec");
+        String   factor     = subsampling ? "2" : "1";
+
+        if (0 == components.getLength())
+        {
+            /* Grayscale images have no chroma */
+            return;
+        }
+
+        ((Element)components.item(0)).setAttribute("HsamplingFactor", factor);
+        ((Element)components.item(0)).setAttribute("VsamplingFactor", factor);
+
+        this.metadata.setFromTree(METADATA_FORMAT, tree);
+    }
+}
@@ -0,0 +1,71 @@
+package utils.image;
+
+/**
+ * Immutable set of parameters used to encode a JPG image
+ */
+public class JpegSettings
+{
+    public static final float MIN_QUALITY     = 0.1f;
+    public static final float MAX_QUALITY     = 1.0f;
+    /* The quality used by ImageIO when none is set */
+    public static final float DEFAULT_QUALITY = 0.75f;
+
+    public static final JpegSettings DEFAULT = new JpegSettings(DEFAULT_QUALITY, true, false);
+
+    private final float   quality;
+    private final boolean chromaSubsampling;
+    private final boolean progressive;
+
+    /**
+     * @param quality           The compression quality, between [MIN_QUALITY, MAX_QUALITY]
+     * @param chromaSubsampling true for 4:2:0 chroma subsampling, or false for 4:4:4
+     * @param progressive       true for a progressive JPG, or false for a baseline one
+     */
+    public JpegSettings(float quality, boolean chromaSubsampling, boolean progressive)
+    {
+        this.quality           = Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+        this.chromaSubsampling = chromaSubsampling;
+        this.progressive       = progressive;
+    }
+
+    /**
+     * Create a copy of these settings with another quality
+     *
+     * @param quality The new quality (it will be clamped between [MIN_QUALITY, MAX_QUALITY])
+     * @return The new settings
+     */
+    public JpegSettings withQuality(float quality)
+    {
+        return new JpegSettings(quality, this.chromaSubsampling, this.progressive);
+    }
+
+    /**
+     * Get the compression quality
+     *
+     * @return The quality, between [MIN_QUALITY, MAX_QUALITY]
+     */
+    public float getQuality()
+    {
+        return this.quality;
+    }
+
+    /**
+     * Checks if the chroma is subsampled
+     *
+     * @return true for 4:2:0 chroma subsampling, or false for 4:4:4
+     */
+    public boolean isChromaSubsampling()
+    {
+        return this.chromaSubsampling;
+    }
+
+    /**
+     * Checks if the image is encoded progressive
+     *
+     * @return true for a progressive JPG, or false for a baseline one
+     */
+    public boolean isProgressive()
+    {
+        return this.progressive;
+    }
+}
@@ -0,0 +1,111 @@
+package utils.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class used to encode several parts of a frame in parallel on a work-stealing pool.
+ * <p>Each worker thread of the pool uses its own {@link JpegEncoder}</p>
+ */
+public class ParallelJpegEncoder
+{
+    /* Stripes are aligned to the JPG MCU height (16 for 4:2:0) so no block crosses a seam */
+    private static final int STRIPE_ALIGNMENT = 16;
+
+    private ForkJoinPool pool = null;
+
+    public ParallelJpegEncoder(int parallelism)
+    {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Split the image in horizontal stripes, one for each worker, and encode them in parallel
+     *
+     * @param image    The image
+     * @param frameId  The id of the frame
+     * @param settings The encoding parameters
+     * @return The packed stripes, as a key frame (see {@link FramePacket})
+     * @throws IOException If a stripe can not be encoded
+     */
+    public byte[] encodeStripes(BufferedImage image, long frameId, JpegSettings settings)
+            throws IOException
+    {
+        int width        = image.getWidth();
+        int height       = image.getHeight();
+        int stripeHeight = (height + this.pool.getParallelism() - 1) / this.pool.getParallelism();
+
+        stripeHeight = Math.max(STRIPE_ALIGNMENT, (stripeHeight + STRIPE_ALIGNMENT - 1) / STRIPE_ALIGNMENT * STRIPE_ALIGNMENT);
+
+        List<BufferedImage>    stripes = new ArrayList<>();
+        List<FramePacket.Part> parts   = new ArrayList<>();
+
+        for (int y = 0; y < height; y += stripeHeight)
+        {
+            stripes.add(image.getSubimage(0, y, width, Math.min(stripeHeight, height - y)));
+        }
+
+        List<byte[]> encoded = this.encodeParts(stripes, settings);
+
+        for (int i = 0; i < stripes.size(); ++ i)
+        {
+            parts.add(new FramePacket.Part(0, i * stripeHeight, width, stripes.get(i).getHeight(), encoded.get(i)));
+        }
+
+        return FramePacket.pack(FramePacket.KEY_FRAME, frameId, width, height, parts);
+    }
+
+    /**
+     * Encode several images in parallel
+     *
+     * @param images   The images
+     * @param settings The encoding parameters
+     * @return The JPG bytes of each image, in the same order
+     * @throws IOException If an image can not be encoded
+     */
+    public List<byte[]> encodeParts(List<BufferedImage> images, JpegSettings settings)
+            throws IOException
+    {
+        List<Callable<byte[]>> tasks   = new ArrayList<>(images.size());
+        List<byte[]>           results = new ArrayList<>(images.size());
+
+        for (BufferedImage image : images)
+        {
+            tasks.add(() -> JpegEncoder.get().encode(image, settings));
+        }
+
+        try
+        {
+            for (Future<byte[]> result : this.pool.invokeAll(tasks))
+            {
+                results.add(result.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+            throw new IOException("Encoding interrupted", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            throw new IOException("Can not encode image part", ex.getCause());
+        }
+
+        return results;
+    }
+
+    /**
+     * Stop the worker threads
+     */
+    public void destroy()
+    {
+        this.pool.shutdownNow();
+    }
+}
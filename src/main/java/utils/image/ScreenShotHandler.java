@@ -1,220 +1,416 @@
 package utils.image;
 
 import utils.log.Log;
+import utils.screen.FrameSource;
+import utils.screen.RobotFrameSource;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
- * Class used to handle the screen shot process
+ * Class used to handle the screen shot process.
+ * <p>The pipeline threads are created by the first start() and live until destroy(). pause() only stops the
+ * captures: the threads stay parked and the buffers (resized images, tiles, capture robot) are kept, so
+ * start() resumes within one frame and an idle pipeline costs no CPU. The encoded frames are dropped by pause(),
+ * so the first frame given after start() is always captured after it.</p>
  */
 public class ScreenShotHandler
 {
     /* Log purpose */
     private static final String TAG = "ScreenShotHandler";
 
-    private static final int NUMBER_OF_THREADS  = 3; /* screenshot/resize/convert */
-    private static final int MAX_IGNORED_FRAMES = 100;
+    private static final int  NUMBER_OF_THREADS      = 3; /* screenshot/resize/convert */
+    private static final int  MAX_IGNORED_FRAMES     = 100;
+    /* An output is produced while it was requested within this many capture periods (but at least
+     * MIN_REQUEST_TIMEOUT, for the clients which are not measured by the adaptive controller) */
+    private static final int  REQUEST_TIMEOUT_FRAMES = 5;
+    private static final long MIN_REQUEST_TIMEOUT    = TimeUnit.SECONDS.toNanos(2);
 
-    private final ReentrantLock screenShotLock             = new ReentrantLock();
-    private final ReentrantLock resizedScreenShotLock      = new ReentrantLock();
-    private final Condition     screenShotAvailable        = this.screenShotLock.newCondition();
-    private final Condition     resizedScreenShotAvailable = this.resizedScreenShotLock.newCondition();
+    /* Stage hand-off: each stage always processes the newest frame of the previous one */
+    private final FrameMailbox<BufferedImage> screenShots        = new FrameMailbox<>();
+    private final FrameMailbox<BufferedImage> resizedScreenShots = new FrameMailbox<>();
 
-    private int             counter           = 0;
-    private int             height            = 0;
-    private AtomicBoolean   isRunning         = null;
-    private ExecutorService executor          = null;
-    private BufferedImage   screenShot        = null;
-    private BufferedImage   resizedScreenShot = null;
+    /* Frames captured since the last one consumed: incremented by the capture worker, reset by the consumers */
+    private final AtomicInteger counter = new AtomicInteger();
 
-    /* These will be used by the screenShot worker
-     * to interrupt the other 2 workers */
-    private Future resizeScreenShotTask         = null;
-    private Future convertResizedScreenShotTask = null;
+    /* Written only by the capture worker */
+    private volatile long     sequence  = 0;
+    /* true while the frames are captured (the pipeline is not paused) */
+    private AtomicBoolean     isRunning = null;
+    private ExecutorService   executor  = null;
+    private ScreenShotResizer resizer   = null;
 
+    /* Set once the pipeline threads are created, until destroy() */
+    private boolean          isWorkersStarted = false;
+    private volatile boolean isDestroyed      = false;
+    /* The screen shot worker, unparked to resume the captures */
+    private volatile Thread  captureThread    = null;
 
-    private AtomicReference<byte[]> resizedScreenShotBytes = null;
+
+    /* The newest encoded full frame, shared by all the clients */
+    private volatile Frame<byte[]> lastFrame = null;
+
+    /* Only the outputs requested recently are produced by the convert worker: time of the last request
+     * of each output (System.nanoTime), or 0 if there is none since the start */
+    private volatile long     fullFrameRequestTime  = 0;
+    private volatile long     deltaFrameRequestTime = 0;
+    private DeltaFrameEncoder deltaFrameEncoder     = null;
+
+    private volatile JpegSettings jpegSettings = JpegSettings.DEFAULT;
+
+    /* Adapts the capture rate, the height and the quality to the client */
+    private AdaptiveController controller        = null;
+    /* Settings used by the convert worker: the requested ones limited by the controller */
+    private JpegSettings       requestedSettings = null;
+    private JpegSettings       effectiveSettings = null;
+
+    /* The part of the frame source which is captured, null for its default region */
+    private volatile Rectangle captureRegion = null;
+    private FrameSource        frameSource   = null;
+
+    /* Notified with each encoded full frame (push streaming) */
+    private final CopyOnWriteArrayList<Consumer<Frame<byte[]>>> frameListeners = new CopyOnWriteArrayList<>();
+
+    /* Used only by the PARALLEL_STRIPES encode mode */
+    private ParallelJpegEncoder parallelEncoder = null;
 
     public ScreenShotHandler(int preferredHeight)
     {
-        this.height                 = preferredHeight;
+        this(preferredHeight, EncodeMode.SINGLE);
+    }
+
+    public ScreenShotHandler(int preferredHeight, EncodeMode encodeMode)
+    {
+        this(preferredHeight, encodeMode, new RobotFrameSource());
+    }
+
+    /**
+     * @param preferredHeight The height of the resized frames
+     * @param encodeMode      How the full frames are encoded
+     * @param frameSource     Where the frames are captured from (owned by the handler, closed by destroy())
+     */
+    public ScreenShotHandler(int preferredHeight, EncodeMode encodeMode, FrameSource frameSource)
+    {
+        this.frameSource = frameSource;
+
+        if (EncodeMode.PARALLEL_STRIPES == encodeMode)
+        {
+            this.parallelEncoder = new ParallelJpegEncoder(Runtime.getRuntime().availableProcessors());
+        }
+
+        this.controller             = new AdaptiveController(preferredHeight);
+        this.resizer                = new ScreenShotResizer(preferredHeight);
         this.executor               = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
-        this.resizedScreenShotBytes = new AtomicReference<>();
         this.isRunning              = new AtomicBoolean(false);
+        this.deltaFrameEncoder      = new DeltaFrameEncoder(this.parallelEncoder);
     }
 
     /**
-     * Start the screen shot handler
+     * Start the screen shot handler, or resume it if it is paused
      */
-    public void start()
+    public synchronized void start()
     {
-        if (! this.isRunning.get())
+        Thread worker = null;
+
+        if (this.isDestroyed || this.isRunning.get())
         {
-            this.isRunning.set(true);
+            return;
+        }
+
+        this.counter.set(0);
+        this.controller.reset();
+        this.isRunning.set(true);
+
+        if (! this.isWorkersStarted)
+        {
+            this.isWorkersStarted = true;
             this.executor.submit(this::takeScreenShot);
-            this.resizeScreenShotTask         = this.executor.submit(this::resizeScreenShot);
-            this.convertResizedScreenShotTask = this.executor.submit(this::convertResizedScreenShotToBytes);
+            this.executor.submit(this::resizeScreenShot);
+            this.executor.submit(this::convertResizedScreenShotToBytes);
+        }
+        else if (null != (worker = this.captureThread))
+        {
+            LockSupport.unpark(worker);
+        }
+
+        Log.d(TAG, "start: capturing");
+    }
+
+    /**
+     * Pause the captures, keeping the threads and the buffers for a fast start()
+     */
+    public void pause()
+    {
+        if (this.isRunning.compareAndSet(true, false))
+        {
+            this.fullFrameRequestTime  = 0;
+            this.deltaFrameRequestTime = 0;
+            this.discardFrames();
+            Log.d(TAG, "pause: captured " + this.sequence + " frames, dropped: " + this.getDroppedFrames());
         }
     }
 
     /**
      * Destroys the screen shot handler and frees all the resources
      */
-    public void destroy()
+    public synchronized void destroy()
     {
+        if (this.isDestroyed)
+        {
+            return;
+        }
+
+        this.isDestroyed = true;
         this.isRunning.set(false);
-        this.executor.shutdown();
+        /* the workers wait in park() or take(), which both return when interrupted */
+        this.executor.shutdownNow();
 
         try
         {
             /* Wait a while for existing tasks to terminate */
-            if (! this.executor.awaitTermination(500, TimeUnit.MILLISECONDS))
-            {
-                this.executor.shutdownNow(); /* Cancel currently executing tasks */
-            }
+            this.executor.awaitTermination(500, TimeUnit.MILLISECONDS);
         }
         catch (InterruptedException ex)
         {
-            /* (Re-)Cancel if current thread also interrupted */
-            this.executor.shutdownNow();
             /* Preserve interrupt status */
             Thread.currentThread().interrupt();
         }
+
+        if (null != this.parallelEncoder)
+        {
+            this.parallelEncoder.destroy();
+        }
+
+        this.resizer.clear();
+        this.frameSource.close();
     }
 
     /**
-     * Return the last screen shot processed
+     * Return the last screen shot processed, if the client did not receive it yet.
+     * The frame is encoded once and given to every client which asks for it.
      *
-     * @return the last screen shot
+     * @param lastFrameId The sequence of the last frame received by the client (or -1 if none)
+     * @param isMeasured  true if the request is used to adapt the capture to the client (only one client
+     *                    should be measured, the requests of several clients are not told apart)
+     * @return the last screen shot, as a JPG for the SINGLE encode mode
+     *         or as a key frame (see {@link FramePacket}) for the PARALLEL_STRIPES encode mode,
+     *         or null if there is no newer frame
      */
-    public byte[] get()
+    public Frame<byte[]> get(long lastFrameId, boolean isMeasured)
     {
-        this.counter = 0;
-        return this.resizedScreenShotBytes.getAndSet(null);
+        Frame<byte[]> frame = this.lastFrame;
+
+        if (null != frame && frame.getSequence() <= lastFrameId)
+        {
+            frame = null;
+        }
+
+        this.counter.set(0);
+        this.fullFrameRequestTime = System.nanoTime();
+
+        if (isMeasured)
+        {
+            this.controller.onRequest(null == frame ? 0 : frame.getValue().length);
+        }
+
+        return frame;
     }
 
     /**
-     * Checks if the screen shot handler is started
+     * Return the tiles changed since the frame known by the client
      *
-     * @return true if the screen shot is started, or false otherwise
+     * @param lastFrameId The id of the last frame received by the client (or -1 if none)
+     * @param isMeasured  true if the request is used to adapt the capture to the client
+     * @return the packed frame (see {@link FramePacket}), or null if there is no newer frame
      */
-    public boolean isStarted()
+    public byte[] getDelta(long lastFrameId, boolean isMeasured)
     {
-        return this.isRunning.get();
+        byte[] bytes = this.deltaFrameEncoder.getDelta(lastFrameId);
+
+        this.counter.set(0);
+        this.deltaFrameRequestTime = System.nanoTime();
+
+        if (isMeasured)
+        {
+            this.controller.onRequest(null == bytes ? 0 : bytes.length);
+        }
+
+        return bytes;
     }
 
     /**
-     * Set a newly created screen shot
+     * Register a listener notified with each encoded full frame, as soon as it is ready
+     * <p>Info: The listener is called from the convert worker and must not block</p>
      *
-     * @param image The image
+     * @param listener The listener
      */
-    private void setScreenShot(BufferedImage image)
+    public void addFrameListener(Consumer<Frame<byte[]>> listener)
     {
-        /* lock access to screenShot */
-        this.screenShotLock.lock();
-        /* save screen shot */
-        this.screenShot = image;
-        /* signal resizeScreenShot thread */
-        this.screenShotAvailable.signal();
-        /* unlock access to screenShot */
-        this.screenShotLock.unlock();
+        this.frameListeners.add(listener);
     }
 
     /**
-     * Get the last screen shot created
+     * Unregister a frame listener
      *
-     * @return The last screen shot
-     * @throws InterruptedException In case that the calling thread is interrupted
+     * @param listener The listener
      */
-    private BufferedImage getScreenShot()
-            throws InterruptedException
+    public void removeFrameListener(Consumer<Frame<byte[]>> listener)
     {
-        BufferedImage image = null;
+        this.frameListeners.remove(listener);
+    }
 
-        try
+    /**
+     * Select the part of the screen which is captured. Only these pixels are captured and encoded.
+     *
+     * @param region The region in the frame source coordinates (it is clipped to the source bounds),
+     *               or null for the default region of the source (the whole default monitor for the screen)
+     * @return true if the region was selected, or false if it is outside of the source bounds
+     */
+    public boolean setCaptureRegion(Rectangle region)
+    {
+        if (null == region)
         {
-            /* lock access to screenShot */
-            this.screenShotLock.lock();
+            this.captureRegion = null;
+            return true;
+        }
 
-            /* wait until a screen shot is available */
-            while (null == this.screenShot)
-            {
-                this.screenShotAvailable.await();
-            }
+        Rectangle clipped = region.intersection(this.frameSource.getBounds());
 
-            image           = this.screenShot;
-            this.screenShot = null;
-        }
-        finally
+        if (clipped.isEmpty())
         {
-            /* unlock access to screenShot */
-            this.screenShotLock.unlock();
+            Log.e(TAG, "setCaptureRegion: region outside of the screen: " + region);
+            return false;
         }
 
-        return image;
+        this.captureRegion = clipped;
+        return true;
     }
 
     /**
-     * Set a resized screen shot
+     * Get the part of the screen which is captured
      *
-     * @param image The resized image
+     * @return The region in the frame source coordinates
      */
-    private void setResizedScreenShot(BufferedImage image)
+    public Rectangle getCaptureRegion()
     {
-        /* lock access to resizedScreenShot */
-        this.resizedScreenShotLock.lock();
-        /* save resized screen shot */
-        this.resizedScreenShot = image;
-        /* signal convertResizedScreenShotToBytes thread */
-        this.resizedScreenShotAvailable.signal();
-        /* unlock access to resizedScreenShot */
-        this.resizedScreenShotLock.unlock();
+        Rectangle region = this.captureRegion;
+
+        return null != region ? region : this.frameSource.getDefaultRegion();
     }
 
     /**
-     * Get the last resized screen shot created
+     * Set the quality used to encode the frames
      *
-     * @return The last screen shot
-     * @throws InterruptedException In case that the calling thread is interrupted
+     * @param quality The wanted quality, between [0, 1]
+     * @return The quality which will be used (clamped to the supported range)
      */
-    private BufferedImage getResizedScreenShot()
-            throws InterruptedException
+    public float setQuality(float quality)
     {
-        BufferedImage image = null;
+        this.jpegSettings = this.jpegSettings.withQuality(quality);
+        return this.jpegSettings.getQuality();
+    }
 
-        try
+    /**
+     * Set all the parameters used to encode the frames
+     *
+     * @param settings The encoding parameters
+     */
+    public void setJpegSettings(JpegSettings settings)
+    {
+        this.jpegSettings = settings;
+    }
+
+    /**
+     * Checks if the screen shot handler is started (and not paused)
+     *
+     * @return true if the screen shot is started, or false otherwise
+     */
+    public boolean isStarted()
+    {
+        return this.isRunning.get();
+    }
+
+    /**
+     * Get the number of frames dropped by the resize and convert stages because they were too slow
+     *
+     * @return The number of dropped frames
+     */
+    public long getDroppedFrames()
+    {
+        return this.screenShots.getDroppedFrames() + this.resizedScreenShots.getDroppedFrames();
+    }
+
+    /**
+     * Push an encoded frame to the listeners
+     *
+     * @param encoded The encoded frame
+     */
+    private void notifyFrameListeners(Frame<byte[]> encoded)
+    {
+        if (this.frameListeners.isEmpty())
         {
-            /* lock access to resizedScreenShot */
-            this.resizedScreenShotLock.lock();
+            return;
+        }
 
-            /* wait until a resized screen shot is available */
-            while (null == this.resizedScreenShot)
-            {
-                this.resizedScreenShotAvailable.await();
-            }
+        /* frames pushed to a listener are consumed */
+        this.counter.set(0);
 
-            image                  = this.resizedScreenShot;
-            this.resizedScreenShot = null;
+        for (Consumer<Frame<byte[]>> listener : this.frameListeners)
+        {
+            listener.accept(encoded);
         }
-        finally
+    }
+
+    /**
+     * Checks if an output was requested recently enough to be produced for the current frame
+     *
+     * @param requestTime The time of the last request of the output, or 0 if none
+     * @return true if the output must be produced, or false otherwise
+     */
+    private boolean isRequested(long requestTime)
+    {
+        long timeout = Math.max(MIN_REQUEST_TIMEOUT, REQUEST_TIMEOUT_FRAMES * this.controller.getCapturePeriod());
+
+        return 0 != requestTime && System.nanoTime() - requestTime < timeout;
+    }
+
+    /**
+     * Drop the encoded frames, which would be outdated when the captures are resumed
+     */
+    private void discardFrames()
+    {
+        this.lastFrame = null;
+        this.deltaFrameEncoder.reset();
+    }
+
+    /**
+     * Get the settings requested by the client, with the quality limited by the adaptive controller
+     * <p>Info: Used only by the convert worker. The same instance is returned while nothing changes,
+     * so the encoder can keep its configuration</p>
+     *
+     * @return The settings used to encode the current frame
+     */
+    private JpegSettings getEffectiveSettings()
+    {
+        JpegSettings requested = this.jpegSettings;
+        float        quality   = Math.min(requested.getQuality(), this.controller.getQuality());
+
+        if (requested != this.requestedSettings || quality != this.effectiveSettings.getQuality())
         {
-            /* unlock access to resizedScreenShot */
-            this.resizedScreenShotLock.unlock();
+            this.requestedSettings = requested;
+            this.effectiveSettings = requested.withQuality(quality);
         }
 
-        return image;
+        return this.effectiveSettings;
     }
 
     /**
@@ -223,31 +419,57 @@ public class ScreenShotHandler
     private void takeScreenShot()
     {
         Log.d(TAG, "takeScreenShot: started");
-        try
+
+        Rectangle region      = null;
+        long      nextCapture = System.nanoTime();
+        long      delay       = 0;
+
+        this.captureThread = Thread.currentThread();
+
+        while (! this.isDestroyed)
         {
-            Rectangle screenFrame = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
-            Robot     robot       = new Robot();
+            if (! this.isRunning.get())
+            {
+                /* paused, start() unparks this thread */
+                LockSupport.park(this);
+                nextCapture = System.nanoTime();
+                continue;
+            }
 
-            while (this.isRunning.get())
+            try
             {
-                this.setScreenShot(robot.createScreenCapture(screenFrame));
+                /* read for each frame, the default region follows the display changes */
+                region = this.getCaptureRegion();
+                /* the capture time is read before the capture starts (arguments are evaluated in order) */
+                this.screenShots.put(new Frame<>(++ this.sequence, System.nanoTime(), this.frameSource.capture(region)));
+
+                /* do not capture faster than the client consumes */
+                nextCapture += this.controller.getCapturePeriod();
+                delay        = nextCapture - System.nanoTime();
 
-                if (++ this.counter > MAX_IGNORED_FRAMES)
+                if (0 < delay)
+                {
+                    LockSupport.parkNanos(delay);
+                }
+                else
                 {
-                    /* Mark pipe as not running */
-                    this.isRunning.set(false);
-                    /* Interrupt the other 2 working threads */
-                    this.resizeScreenShotTask.cancel(true);
-                    this.convertResizedScreenShotTask.cancel(true);
+                    nextCapture = System.nanoTime();
+                }
+
+                if (this.counter.incrementAndGet() > MAX_IGNORED_FRAMES)
+                {
+                    /* nobody reads the frames */
+                    this.pause();
                 }
             }
-        }
-        catch (AWTException ex)
-        {
-            ex.printStackTrace();
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+                this.pause();
+            }
         }
 
-        Log.d(TAG, "takeScreenShot: finished");
+        Log.d(TAG, "takeScreenShot: finished after " + this.sequence + " frames, dropped: " + this.getDroppedFrames());
     }
 
     /**
@@ -257,27 +479,22 @@ public class ScreenShotHandler
     {
         Log.d(TAG, "resizeScreenShot: started");
 
-        BufferedImage original    = null;
-        BufferedImage resized     = null;
-        Graphics2D    graph2D     = null;
-        float         aspectRatio = 1;
+        Frame<BufferedImage> frame    = null;
+        Frame<BufferedImage> replaced = null;
 
         try
         {
-            while (this.isRunning.get())
+            while (! this.isDestroyed)
             {
-                original    = this.getScreenShot();
-                aspectRatio = (float)original.getWidth() / original.getHeight();
-                resized     = new BufferedImage((int)(aspectRatio * this.height), this.height, original.getType());
-                graph2D     = resized.createGraphics();
-
-                graph2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                graph2D.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-                graph2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                graph2D.drawImage(original, 0, 0, (int)(aspectRatio * this.height), this.height, null);
-                graph2D.dispose();
-
-                this.setResizedScreenShot(resized);
+                frame    = this.screenShots.take();
+                this.resizer.setHeight(this.controller.getHeight());
+                replaced = this.resizedScreenShots.put(new Frame<>(frame, this.resizer.resize(frame.getValue())));
+
+                /* the convert worker will never see the replaced frame, give its image back to the pool */
+                if (null != replaced)
+                {
+                    this.resizer.release(replaced.getValue());
+                }
             }
         }
         catch (InterruptedException ex)
@@ -297,25 +514,56 @@ public class ScreenShotHandler
     {
         Log.d(TAG, "convertResizedScreenShotToBytes: started");
 
-        BufferedImage         image       = null;
-        ByteArrayOutputStream imageStream = null;
+        Frame<BufferedImage> frame    = null;
+        BufferedImage        image    = null;
+        byte[]               bytes    = null;
+        JpegSettings         settings = null;
+        JpegEncoder          encoder  = JpegEncoder.get();
 
         try
         {
-            while (this.isRunning.get())
+            while (! this.isDestroyed)
             {
                 try
                 {
-                    image       = this.getResizedScreenShot();
-                    imageStream = new ByteArrayOutputStream();
-                    ImageIO.write(image, "jpg", imageStream);
-                    this.resizedScreenShotBytes.set(imageStream.toByteArray());
-                    imageStream.reset();
+                    frame    = this.resizedScreenShots.take();
+                    image    = frame.getValue();
+                    settings = this.getEffectiveSettings();
+
+                    if (this.isRequested(this.fullFrameRequestTime) || ! this.frameListeners.isEmpty())
+                    {
+                        bytes = null != this.parallelEncoder
+                                ? this.parallelEncoder.encodeStripes(image, frame.getSequence(), settings)
+                                : encoder.encode(image, settings);
+
+                        this.lastFrame = new Frame<>(frame, bytes);
+                        this.notifyFrameListeners(this.lastFrame);
+                    }
+
+                    /* the tiles are compared with the last updated frame, so a pause of the updates is safe */
+                    if (this.isRequested(this.deltaFrameRequestTime))
+                    {
+                        this.deltaFrameEncoder.update(image, frame.getSequence(), settings);
+                    }
+
+                    if (! this.isRunning.get())
+                    {
+                        /* paused while this frame was encoded, it must not be given after the resume */
+                        this.discardFrames();
+                    }
                 }
                 catch (IOException ex)
                 {
                     ex.printStackTrace();
                 }
+                finally
+                {
+                    if (null != image)
+                    {
+                        this.resizer.release(image);
+                        image = null;
+                    }
+                }
             }
         }
         catch (InterruptedException ex)
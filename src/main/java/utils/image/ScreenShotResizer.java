@@ -0,0 +1,352 @@
+package utils.image;
+
+import utils.log.Log;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Class used to resize the screen shots into a small pool of reused images.
+ * <p>Each image returned by resize() is owned by the caller until it is given back with release().
+ * resize() must be called from a single thread, release() may be called from any thread.</p>
+ */
+public class ScreenShotResizer
+{
+    /* Log purpose */
+    private static final String TAG = "ScreenShotResizer";
+
+    /* one being resized, one waiting in the mailbox and one being encoded */
+    private static final int POOL_SIZE = 3;
+
+    /* Masks used to average 2 of the 4 channels of a packed pixel at once */
+    private static final int CHANNEL_MASK = 0x00FF00FF;
+
+    private int height       = 0;
+    private int sourceWidth  = 0;
+    private int sourceHeight = 0;
+    private int targetWidth  = 0;
+    private int targetHeight = 0;
+
+    private volatile Pool pool = null;
+
+    /**
+     * The images of one resolution
+     */
+    private static class Pool
+    {
+        private final BufferedImage[]    images   = new BufferedImage[POOL_SIZE];
+        private final Graphics2D[]       graphics = new Graphics2D[POOL_SIZE];
+        /* 1 if the image is free, 0 if it is in use */
+        private final AtomicIntegerArray free     = new AtomicIntegerArray(POOL_SIZE);
+
+        private Pool(int width, int height)
+        {
+            for (int i = 0; i < POOL_SIZE; ++ i)
+            {
+                this.images[i]   = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                this.graphics[i] = this.images[i].createGraphics();
+                this.graphics[i].setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                this.graphics[i].setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                this.graphics[i].setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                this.free.set(i, 1);
+            }
+        }
+
+        private void dispose()
+        {
+            for (Graphics2D graph2D : this.graphics)
+            {
+                graph2D.dispose();
+            }
+        }
+    }
+
+    public ScreenShotResizer(int preferredHeight)
+    {
+        this.height = preferredHeight;
+    }
+
+    /**
+     * Resize an image to the preferred height (or keep its height if it is smaller), keeping the aspect ratio
+     *
+     * @param original The image to be resized
+     * @return The resized image, which must be given back with release()
+     */
+    public BufferedImage resize(BufferedImage original)
+    {
+        if (original.getWidth() != this.sourceWidth || original.getHeight() != this.sourceHeight || null == this.pool)
+        {
+            this.resizePool(original.getWidth(), original.getHeight());
+        }
+
+        Pool          current = this.pool;
+        int           index   = this.acquire(current);
+        BufferedImage resized = null;
+
+        if (0 > index)
+        {
+            /* every image is still in use, should not happen while the protocol is respected */
+            Graphics2D graph2D = null;
+
+            Log.e(TAG, "resize: pool exhausted, allocating a new image");
+            resized = new BufferedImage(this.targetWidth, this.targetHeight, BufferedImage.TYPE_INT_RGB);
+            graph2D = resized.createGraphics();
+            graph2D.drawImage(original, 0, 0, this.targetWidth, this.targetHeight, null);
+            graph2D.dispose();
+            return resized;
+        }
+
+        resized = current.images[index];
+
+        if (! this.scaleRaster(original, resized))
+        {
+            current.graphics[index].drawImage(original, 0, 0, this.targetWidth, this.targetHeight, null);
+        }
+
+        return resized;
+    }
+
+    /**
+     * Change the height of the resized images. The pool is rebuilt on the next resize()
+     * <p>Info: must be called from the thread calling resize()</p>
+     *
+     * @param preferredHeight The new height
+     */
+    public void setHeight(int preferredHeight)
+    {
+        if (preferredHeight != this.height)
+        {
+            this.height      = preferredHeight;
+            this.sourceWidth = 0;
+        }
+    }
+
+    /**
+     * Give back an image returned by resize()
+     *
+     * @param image The image
+     */
+    public void release(BufferedImage image)
+    {
+        Pool current = this.pool;
+
+        if (null == current)
+        {
+            return;
+        }
+
+        for (int i = 0; i < POOL_SIZE; ++ i)
+        {
+            if (current.images[i] == image)
+            {
+                current.free.set(i, 1);
+                return;
+            }
+        }
+
+        /* Images from an older resolution are left to the garbage collector */
+    }
+
+    /**
+     * Drop the pool. Used when the images given by resize() will never be released (pipeline stopped)
+     */
+    public void clear()
+    {
+        Pool current = this.pool;
+
+        this.pool = null;
+
+        if (null != current)
+        {
+            current.dispose();
+        }
+    }
+
+    /**
+     * Allocate the images for a new source resolution
+     *
+     * @param width  The source width
+     * @param height The source height
+     */
+    private void resizePool(int width, int height)
+    {
+        float aspectRatio = (float)width / height;
+
+        this.sourceWidth  = width;
+        this.sourceHeight = height;
+        /* small capture regions are never scaled up */
+        this.targetHeight = Math.min(this.height, height);
+        this.targetWidth  = Math.max(1, (int)(aspectRatio * this.targetHeight));
+
+        this.clear();
+        this.pool = new Pool(this.targetWidth, this.targetHeight);
+        Log.d(TAG, "resizePool: " + width + "x" + height + " -> " + this.targetWidth + "x" + this.targetHeight);
+    }
+
+    /**
+     * Reserve a free image from the pool
+     *
+     * @param current The pool
+     * @return The index of the image, or -1 if all of them are in use
+     */
+    private int acquire(Pool current)
+    {
+        for (int i = 0; i < POOL_SIZE; ++ i)
+        {
+            if (current.free.compareAndSet(i, 1, 0))
+            {
+                return i;
+            }
+        }
+
+        return - 1;
+    }
+
+    /**
+     * Scale directly the pixels for the common 2:1 and 3:2 ratios
+     *
+     * @param original The source image
+     * @param resized  The target image
+     * @return true if the image was scaled, or false if the ratio or the image layout is not supported
+     */
+    private boolean scaleRaster(BufferedImage original, BufferedImage resized)
+    {
+        int srcWidth  = original.getWidth();
+        int srcHeight = original.getHeight();
+        int dstWidth  = resized.getWidth();
+        int dstHeight = resized.getHeight();
+
+        if (! isPackedIntImage(original) || ! isPackedIntImage(resized))
+        {
+            return false;
+        }
+
+        int[] src = ((DataBufferInt)original.getRaster().getDataBuffer()).getData();
+        int[] dst = ((DataBufferInt)resized.getRaster().getDataBuffer()).getData();
+
+        if (srcWidth == 2 * dstWidth && srcHeight == 2 * dstHeight)
+        {
+            scaleHalf(src, srcWidth, dst, dstWidth, dstHeight);
+            return true;
+        }
+        else if (2 * srcWidth == 3 * dstWidth && 2 * srcHeight == 3 * dstHeight)
+        {
+            scaleTwoThirds(src, srcWidth, dst, dstWidth, dstHeight);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Checks if the image stores one packed RGB pixel per int, without padding
+     *
+     * @param image The image
+     * @return true if the pixels can be accessed directly, or false otherwise
+     */
+    private static boolean isPackedIntImage(BufferedImage image)
+    {
+        if ((BufferedImage.TYPE_INT_RGB != image.getType() && BufferedImage.TYPE_INT_ARGB != image.getType())
+            || ! (image.getRaster().getDataBuffer() instanceof DataBufferInt)
+            || ! (image.getSampleModel() instanceof SinglePixelPackedSampleModel))
+        {
+            return false;
+        }
+
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel)image.getSampleModel();
+
+        return model.getScanlineStride() == image.getWidth()
+               && 0 == image.getRaster().getDataBuffer().getOffset()
+               && 0 == image.getRaster().getSampleModelTranslateX()
+               && 0 == image.getRaster().getSampleModelTranslateY();
+    }
+
+    /**
+     * Downscale by 2 averaging each 2x2 block
+     *
+     * @param src       The source pixels
+     * @param srcWidth  The source width
+     * @param dst       The target pixels
+     * @param dstWidth  The target width
+     * @param dstHeight The target height
+     */
+    private static void scaleHalf(int[] src, int srcWidth, int[] dst, int dstWidth, int dstHeight)
+    {
+        for (int y = 0; y < dstHeight; ++ y)
+        {
+            int top    = 2 * y * srcWidth;
+            int bottom = top + srcWidth;
+            int out    = y * dstWidth;
+
+            for (int x = 0; x < dstWidth; ++ x)
+            {
+                int sx = 2 * x;
+                int p0 = src[top + sx];
+                int p1 = src[top + sx + 1];
+                int p2 = src[bottom + sx];
+                int p3 = src[bottom + sx + 1];
+
+                /* sum 2 channels at once, 4 x 8 bits fit in the 16 bits lanes */
+                int even = (p0 & CHANNEL_MASK) + (p1 & CHANNEL_MASK) + (p2 & CHANNEL_MASK) + (p3 & CHANNEL_MASK);
+                int odd  = ((p0 >>> 8) & CHANNEL_MASK) + ((p1 >>> 8) & CHANNEL_MASK)
+                           + ((p2 >>> 8) & CHANNEL_MASK) + ((p3 >>> 8) & CHANNEL_MASK);
+
+                dst[out + x] = ((even >>> 2) & CHANNEL_MASK) | (((odd >>> 2) & CHANNEL_MASK) << 8);
+            }
+        }
+    }
+
+    /**
+     * Downscale by 3:2 mapping each 3x3 block to a 2x2 block (area weighted)
+     *
+     * @param src       The source pixels
+     * @param srcWidth  The source width
+     * @param dst       The target pixels
+     * @param dstWidth  The target width
+     * @param dstHeight The target height
+     */
+    private static void scaleTwoThirds(int[] src, int srcWidth, int[] dst, int dstWidth, int dstHeight)
+    {
+        for (int y = 0; y < dstHeight; y += 2)
+        {
+            int row0 = (3 * y / 2) * srcWidth;
+            int row1 = row0 + srcWidth;
+            int row2 = row1 + srcWidth;
+            int out0 = y * dstWidth;
+            int out1 = out0 + dstWidth;
+
+            for (int x = 0; x < dstWidth; x += 2)
+            {
+                int sx = 3 * x / 2;
+
+                dst[out0 + x]     = blend(src[row0 + sx], src[row0 + sx + 1], src[row1 + sx], src[row1 + sx + 1]);
+                dst[out0 + x + 1] = blend(src[row0 + sx + 2], src[row0 + sx + 1], src[row1 + sx + 2], src[row1 + sx + 1]);
+                dst[out1 + x]     = blend(src[row2 + sx], src[row2 + sx + 1], src[row1 + sx], src[row1 + sx + 1]);
+                dst[out1 + x + 1] = blend(src[row2 + sx + 2], src[row2 + sx + 1], src[row1 + sx + 2], src[row1 + sx + 1]);
+            }
+        }
+    }
+
+    /**
+     * Blend 4 pixels with the weights 4/9, 2/9, 2/9 and 1/9
+     *
+     * @param corner     The pixel at the corner of the target pixel area (weight 4)
+     * @param horizontal The pixel shared horizontally (weight 2)
+     * @param vertical   The pixel shared vertically (weight 2)
+     * @param center     The center pixel of the 3x3 block (weight 1)
+     * @return The blended pixel
+     */
+    private static int blend(int corner, int horizontal, int vertical, int center)
+    {
+        int even = 4 * (corner & CHANNEL_MASK) + 2 * (horizontal & CHANNEL_MASK)
+                   + 2 * (vertical & CHANNEL_MASK) + (center & CHANNEL_MASK);
+        int odd  = 4 * ((corner >>> 8) & CHANNEL_MASK) + 2 * ((horizontal >>> 8) & CHANNEL_MASK)
+                   + 2 * ((vertical >>> 8) & CHANNEL_MASK) + ((center >>> 8) & CHANNEL_MASK);
+
+        return ((even & 0xFFFF) / 9) | (((even >>> 16) / 9) << 16)
+               | ((((odd & 0xFFFF) / 9) | (((odd >>> 16) / 9) << 16)) << 8);
+    }
+}
@@ -0,0 +1,146 @@
+package utils.input;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An input event sent by the client in a batch.
+ * <p>Batch layout (big endian), one event after the other:</p>
+ * <pre>
+ * byte   type      one of the types below
+ * short  delay     milliseconds since the previous event of the batch (unsigned)
+ * ...    payload   KEY_PRESS, KEY_RELEASE:           int key code
+ *                  MOUSE_PRESS, MOUSE_RELEASE:       int button mask
+ *                  MOUSE_MOVE:                       float x, float y (fractions of the capture region)
+ *                  MOUSE_MOVE_RELATIVE:              short dx, short dy (pixels)
+ *                  MOUSE_SCROLL:                     short ticks (negative for up)
+ * </pre>
+ */
+public class InputEvent
+{
+    public static final byte KEY_PRESS           = 0;
+    public static final byte KEY_RELEASE         = 1;
+    public static final byte MOUSE_PRESS         = 2;
+    public static final byte MOUSE_RELEASE       = 3;
+    public static final byte MOUSE_MOVE          = 4;
+    public static final byte MOUSE_MOVE_RELATIVE = 5;
+    public static final byte MOUSE_SCROLL        = 6;
+
+    private final byte  type;
+    private final int   delay;
+    /* key code, button mask or scroll ticks */
+    private final int   code;
+    /* position (MOUSE_MOVE) or distance (MOUSE_MOVE_RELATIVE) */
+    private final float x;
+    private final float y;
+
+    public InputEvent(byte type, int delay, int code, float x, float y)
+    {
+        this.type  = type;
+        this.delay = delay;
+        this.code  = code;
+        this.x     = x;
+        this.y     = y;
+    }
+
+    /**
+     * Decode a batch of events
+     *
+     * @param packedEvents The batch
+     * @return The events, in order
+     * @throws IllegalArgumentException If the batch is malformed
+     */
+    public static List<InputEvent> decode(byte[] packedEvents)
+    {
+        ByteBuffer       buffer = ByteBuffer.wrap(packedEvents);
+        List<InputEvent> events = new ArrayList<>();
+
+        try
+        {
+            while (buffer.hasRemaining())
+            {
+                byte type  = buffer.get();
+                int  delay = buffer.getShort() & 0xFFFF;
+
+                switch (type)
+                {
+                    case KEY_PRESS:
+                    case KEY_RELEASE:
+                    case MOUSE_PRESS:
+                    case MOUSE_RELEASE:
+                        events.add(new InputEvent(type, delay, buffer.getInt(), 0, 0));
+                        break;
+                    case MOUSE_MOVE:
+                        events.add(new InputEvent(type, delay, 0, buffer.getFloat(), buffer.getFloat()));
+                        break;
+                    case MOUSE_MOVE_RELATIVE:
+                        events.add(new InputEvent(type, delay, 0, buffer.getShort(), buffer.getShort()));
+                        break;
+                    case MOUSE_SCROLL:
+                        events.add(new InputEvent(type, delay, buffer.getShort(), 0, 0));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown input event type: " + type);
+                }
+            }
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw new IllegalArgumentException("Truncated input event batch", ex);
+        }
+
+        return events;
+    }
+
+    /**
+     * Get the type of the event
+     *
+     * @return The type
+     */
+    public byte getType()
+    {
+        return this.type;
+    }
+
+    /**
+     * Get the time between the previous event and this one
+     *
+     * @return The delay in milliseconds
+     */
+    public int getDelay()
+    {
+        return this.delay;
+    }
+
+    /**
+     * Get the key code, the button mask or the scroll ticks
+     *
+     * @return The code
+     */
+    public int getCode()
+    {
+        return this.code;
+    }
+
+    /**
+     * Get the horizontal position (fraction of the capture region) or distance (pixels)
+     *
+     * @return The x value
+     */
+    public float getX()
+    {
+        return this.x;
+    }
+
+    /**
+     * Get the vertical position (fraction of the capture region) or distance (pixels)
+     *
+     * @return The y value
+     */
+    public float getY()
+    {
+        return this.y;
+    }
+}
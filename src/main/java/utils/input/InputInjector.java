@@ -0,0 +1,306 @@
+package utils.input;
+
+import utils.concurrent.RingBuffer;
+import utils.log.Log;
+import utils.screen.ScreenGeometry;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Class used to inject the input events of the client through {@link Robot}.
+ * <p>The events are queued by the transport threads and injected by a dedicated thread, so the calls which
+ * block on the windowing system never delay the other requests. Consecutive moves and scroll ticks waiting in
+ * the queue are merged into a single event.</p>
+ * <p>The pointer position is tracked locally, it is read again from the system only after the client did not
+ * move the mouse for POINTER_TIMEOUT (the local user may have moved it meanwhile).</p>
+ */
+public class InputInjector
+{
+    /* Log purpose */
+    private static final String TAG = "InputInjector";
+
+    /* Longer pauses between the events of a batch are shortened to this */
+    private static final int  MAX_EVENT_DELAY = 100;
+    /* The pauses of a batch are shortened so their sum stays under this */
+    private static final int  MAX_BATCH_DELAY = 250;
+    /* Events waiting to be injected, more are refused */
+    private static final int  QUEUE_CAPACITY  = 1024;
+    private static final long POINTER_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+    private Robot                  robot         = null;
+    /* The region of the screen shown to the client, used by the absolute moves */
+    private Supplier<Rectangle>    captureRegion = null;
+    private RingBuffer<InputEvent> events        = null;
+    private Thread                 injector      = null;
+    /* The last position given to the robot, only used by the injector thread */
+    private Point                  pointer       = null;
+    private long                   pointerTime   = 0;
+
+    private volatile boolean isRunning = false;
+
+    public InputInjector(Robot robot, Supplier<Rectangle> captureRegion)
+    {
+        this.robot         = robot;
+        this.captureRegion = captureRegion;
+        this.events        = new RingBuffer<>(QUEUE_CAPACITY);
+    }
+
+    /**
+     * Start the injector thread
+     */
+    public synchronized void start()
+    {
+        if (! this.isRunning)
+        {
+            this.isRunning = true;
+            this.injector  = new Thread(this::injectEvents, TAG);
+            this.injector.setDaemon(true);
+            this.injector.start();
+        }
+    }
+
+    /**
+     * Stop the injector thread. The events not injected yet are kept for the next start()
+     */
+    public synchronized void destroy()
+    {
+        if (this.isRunning)
+        {
+            this.isRunning = false;
+            this.injector.interrupt();
+            this.injector = null;
+        }
+    }
+
+    /**
+     * Queue an event
+     *
+     * @param event The event
+     * @return true if the event was queued, or false if the queue is full
+     */
+    public boolean submit(InputEvent event)
+    {
+        if (! this.events.offer(event))
+        {
+            Log.e(TAG, "submit: queue full, event dropped: " + event.getType());
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Queue a batch of events, in order. The batch is queued whole or not at all, so it never leaves
+     * a key or a button pressed without its release
+     *
+     * @param batch The events
+     * @return true if the events were queued, or false if the queue has no room for all of them
+     */
+    public boolean submitAll(List<InputEvent> batch)
+    {
+        if (! this.events.offerAll(limitDelays(batch)))
+        {
+            Log.e(TAG, "submitAll: queue full, batch of " + batch.size() + " events dropped");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Shorten the pauses of a batch, so it is injected in at most MAX_BATCH_DELAY
+     *
+     * @param batch The events
+     * @return The events with their delays limited (the given list if no delay was changed)
+     */
+    private static List<InputEvent> limitDelays(List<InputEvent> batch)
+    {
+        List<InputEvent> limited = null;
+        int              budget  = MAX_BATCH_DELAY;
+
+        for (int i = 0; i < batch.size(); ++ i)
+        {
+            InputEvent event = batch.get(i);
+            int        delay = Math.min(Math.min(event.getDelay(), MAX_EVENT_DELAY), budget);
+
+            budget -= delay;
+
+            if (delay != event.getDelay() && null == limited)
+            {
+                limited = new ArrayList<>(batch.subList(0, i));
+            }
+
+            if (null != limited)
+            {
+                limited.add(delay == event.getDelay() ? event
+                                                      : new InputEvent(event.getType(), delay, event.getCode(),
+                                                                       event.getX(), event.getY()));
+            }
+        }
+
+        return null == limited ? batch : limited;
+    }
+
+    /**
+     * The task which injects the queued events
+     */
+    private void injectEvents()
+    {
+        Log.d(TAG, "injectEvents: thread started");
+
+        while (this.isRunning)
+        {
+            try
+            {
+                InputEvent event = this.coalesce(this.events.take());
+
+                if (0 < event.getDelay())
+                {
+                    this.robot.delay(Math.min(event.getDelay(), MAX_EVENT_DELAY));
+                }
+
+                this.inject(event);
+            }
+            catch (InterruptedException ex)
+            {
+                /* destroy() was called */
+                break;
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+
+        Log.d(TAG, "injectEvents: thread finished");
+    }
+
+    /**
+     * Merge an event with the following events of the same type already queued.
+     * Absolute moves keep the last position, relative moves and scroll ticks are added.
+     * <p>Info: the delays of the merged events are dropped</p>
+     *
+     * @param first The event taken from the queue
+     * @return The merged event (or the given one if nothing was merged)
+     */
+    private InputEvent coalesce(InputEvent first)
+    {
+        InputEvent next   = null;
+        int        merged = 0;
+        int        code   = first.getCode();
+        float      x      = first.getX();
+        float      y      = first.getY();
+
+        if (InputEvent.MOUSE_MOVE != first.getType()
+            && InputEvent.MOUSE_MOVE_RELATIVE != first.getType()
+            && InputEvent.MOUSE_SCROLL != first.getType())
+        {
+            return first;
+        }
+
+        while (null != (next = this.events.peek()) && next.getType() == first.getType())
+        {
+            this.events.poll();
+            ++ merged;
+
+            if (InputEvent.MOUSE_MOVE == first.getType())
+            {
+                x = next.getX();
+                y = next.getY();
+            }
+            else
+            {
+                code += next.getCode();
+                x    += next.getX();
+                y    += next.getY();
+            }
+        }
+
+        return 0 == merged ? first : new InputEvent(first.getType(), first.getDelay(), code, x, y);
+    }
+
+    /**
+     * Inject an event, ignoring its delay
+     *
+     * @param event The event
+     */
+    private void inject(InputEvent event)
+    {
+        switch (event.getType())
+        {
+            case InputEvent.KEY_PRESS:
+                this.robot.keyPress(event.getCode());
+                break;
+            case InputEvent.KEY_RELEASE:
+                this.robot.keyRelease(event.getCode());
+                break;
+            case InputEvent.MOUSE_PRESS:
+                this.robot.mousePress(event.getCode());
+                break;
+            case InputEvent.MOUSE_RELEASE:
+                this.robot.mouseRelease(event.getCode());
+                break;
+            case InputEvent.MOUSE_MOVE:
+                this.moveTo(event.getX(), event.getY());
+                break;
+            case InputEvent.MOUSE_MOVE_RELATIVE:
+                this.moveBy((int)event.getX(), (int)event.getY());
+                break;
+            case InputEvent.MOUSE_SCROLL:
+                this.robot.mouseWheel(event.getCode());
+                break;
+            default:
+                Log.e(TAG, "inject: Unknown event type: " + event.getType());
+        }
+    }
+
+    /**
+     * Move the mouse to a position of the capture region
+     *
+     * @param pX The position on Ox, as a fraction of the region width
+     * @param pY The position on Oy, as a fraction of the region height
+     */
+    private void moveTo(float pX, float pY)
+    {
+        Rectangle region = this.captureRegion.get();
+
+        this.setPointer(region.x + (int)(pX * region.width), region.y + (int)(pY * region.height));
+    }
+
+    /**
+     * Move the mouse relative to its current position
+     *
+     * @param dX The distance on Ox, in pixels
+     * @param dY The distance on Oy, in pixels
+     */
+    private void moveBy(int dX, int dY)
+    {
+        Rectangle screen = ScreenGeometry.getInstance().getVirtualBounds();
+
+        if (null == this.pointer || System.nanoTime() - this.pointerTime > POINTER_TIMEOUT)
+        {
+            this.pointer = MouseInfo.getPointerInfo().getLocation();
+        }
+
+        /* keep the pointer on the screen, as the system does */
+        this.setPointer(Math.max(screen.x, Math.min(screen.x + screen.width - 1, this.pointer.x + dX)),
+                        Math.max(screen.y, Math.min(screen.y + screen.height - 1, this.pointer.y + dY)));
+    }
+
+    /**
+     * Move the mouse and remember its position
+     *
+     * @param x The position on Ox, in pixels
+     * @param y The position on Oy, in pixels
+     */
+    private void setPointer(int x, int y)
+    {
+        this.robot.mouseMove(x, y);
+        this.pointer     = new Point(x, y);
+        this.pointerTime = System.nanoTime();
+    }
+}
@@ -0,0 +1,297 @@
+package utils.log;
+
+import utils.concurrent.RingBuffer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class used to write the log messages on a background thread.
+ * <p>The callers only queue the message in a ring buffer (messages are dropped and counted when it is full).
+ * The writer thread formats them, writes them to the console and to a file which is rolled over when it gets
+ * too big (remote-server.log, remote-server.log.1, ...).</p>
+ */
+class AsyncLogWriter
+{
+    private static final int  QUEUE_CAPACITY = 8192;
+    private static final long MAX_FILE_SIZE  = 8 * 1024 * 1024;
+    /* The current file and the rolled over ones */
+    private static final int  MAX_FILES      = 4;
+    private static final long FLUSH_TIMEOUT  = TimeUnit.SECONDS.toMillis(1);
+
+    private RingBuffer<Record> queue        = null;
+    private AtomicLong         droppedCount = null;
+    private File               file         = null;
+    private boolean            isConsole    = false;
+    /* The fields below are used only by the writer thread */
+    private Writer             fileWriter   = null;
+    private long               fileSize     = 0;
+    private StringBuilder      line         = null;
+    private SimpleDateFormat   timeFormat   = null;
+    private Date               date         = null;
+
+    /**
+     * A queued message
+     */
+    private static class Record
+    {
+        private final long           time;
+        private final Log.Level      level;
+        private final String         tag;
+        private final String         message;
+        /* Set only for the flush markers */
+        private final CountDownLatch flushed;
+
+        private Record(long time, Log.Level level, String tag, String message, CountDownLatch flushed)
+        {
+            this.time    = time;
+            this.level   = level;
+            this.tag     = tag;
+            this.message = message;
+            this.flushed = flushed;
+        }
+    }
+
+    /**
+     * @param filePath  The path of the log file, or an empty string to write only to the console
+     * @param isConsole true to write the messages to the console too
+     */
+    AsyncLogWriter(String filePath, boolean isConsole)
+    {
+        Thread thread = new Thread(this::writeMessages, "AsyncLogWriter");
+
+        this.queue        = new RingBuffer<>(QUEUE_CAPACITY);
+        this.droppedCount = new AtomicLong();
+        this.file         = filePath.isEmpty() ? null : new File(filePath);
+        this.isConsole    = isConsole;
+        this.line         = new StringBuilder(256);
+        this.timeFormat   = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        this.date         = new Date();
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    /**
+     * Queue a message
+     *
+     * @param level   The level
+     * @param tag     The tag
+     * @param message The message
+     */
+    void write(Log.Level level, String tag, String message)
+    {
+        if (! this.queue.offer(new Record(System.currentTimeMillis(), level, tag, message, null)))
+        {
+            this.droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wait until the messages queued before this call are written (at most FLUSH_TIMEOUT)
+     */
+    void flush()
+    {
+        CountDownLatch flushed  = new CountDownLatch(1);
+        Record         marker   = new Record(0, null, null, null, flushed);
+        long           deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+
+        try
+        {
+            /* the queue may be full, wait for the writer to make room */
+            while (! this.queue.offer(marker))
+            {
+                if (System.nanoTime() > deadline)
+                {
+                    return;
+                }
+
+                Thread.sleep(1);
+            }
+
+            flushed.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The task which writes the queued messages
+     */
+    private void writeMessages()
+    {
+        while (true)
+        {
+            try
+            {
+                Record record = this.queue.take();
+
+                if (null != record.flushed)
+                {
+                    this.flushOutputs();
+                    record.flushed.countDown();
+                    continue;
+                }
+
+                this.writeDropped();
+                this.writeRecord(record);
+
+                /* flush once the burst is written */
+                if (null == this.queue.peek())
+                {
+                    this.flushOutputs();
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write a message to the console and to the file (which is given up if it can not be written)
+     *
+     * @param record The message
+     */
+    private void writeRecord(Record record)
+    {
+        this.date.setTime(record.time);
+        this.line.setLength(0);
+        this.line.append(this.timeFormat.format(this.date))
+                 .append(Log.Level.ERROR == record.level ? " error:" : " debug:")
+                 .append(record.tag).append(": ").append(record.message);
+
+        if (this.isConsole)
+        {
+            PrintStream console = Log.Level.ERROR == record.level ? System.err : System.out;
+
+            console.append(this.line).append(System.lineSeparator());
+        }
+
+        if (null != this.file)
+        {
+            try
+            {
+                this.line.append(System.lineSeparator());
+                this.writeFile(this.line);
+            }
+            catch (IOException ex)
+            {
+                /* keep writing to the console only */
+                ex.printStackTrace();
+                this.file = null;
+            }
+        }
+    }
+
+    /**
+     * Write the number of messages dropped since the last call, if any
+     */
+    private void writeDropped()
+    {
+        long dropped = this.droppedCount.getAndSet(0);
+
+        if (0 < dropped)
+        {
+            this.writeRecord(new Record(System.currentTimeMillis(), Log.Level.ERROR, "Log",
+                                        dropped + " messages dropped (queue full)", null));
+        }
+    }
+
+    /**
+     * Append a line to the log file, rolling it over first if it is too big
+     *
+     * @param text The line
+     * @throws IOException If the file can not be written
+     */
+    private void writeFile(CharSequence text)
+            throws IOException
+    {
+        if (null == this.fileWriter || this.fileSize >= MAX_FILE_SIZE)
+        {
+            this.openFile();
+        }
+
+        this.fileWriter.append(text);
+        /* close enough for ASCII messages */
+        this.fileSize += text.length();
+    }
+
+    /**
+     * Open the log file, rolling over the current one if it is too big
+     *
+     * @throws IOException If the file can not be opened
+     */
+    private void openFile()
+            throws IOException
+    {
+        if (null != this.fileWriter)
+        {
+            this.fileWriter.close();
+            this.fileWriter = null;
+        }
+
+        if (null != this.file.getParentFile())
+        {
+            this.file.getParentFile().mkdirs();
+        }
+
+        if (this.file.length() >= MAX_FILE_SIZE)
+        {
+            /* remote-server.log.2 -> remote-server.log.3, ..., remote-server.log -> remote-server.log.1 */
+            for (int i = MAX_FILES - 1; i > 0; -- i)
+            {
+                File source = 1 == i ? this.file : new File(this.file.getPath() + "." + (i - 1));
+                File target = new File(this.file.getPath() + "." + i);
+
+                if (source.exists())
+                {
+                    target.delete();
+                    source.renameTo(target);
+                }
+            }
+        }
+
+        this.fileSize   = this.file.length();
+        this.fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true),
+                                                                    StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Flush the console and the file
+     *
+     * @throws IOException If the file can not be written
+     */
+    private void flushOutputs()
+            throws IOException
+    {
+        if (this.isConsole)
+        {
+            System.out.flush();
+            System.err.flush();
+        }
+
+        if (null != this.fileWriter)
+        {
+            this.fileWriter.flush();
+        }
+    }
+}
@@ -1,10 +1,73 @@
 package utils.log;
 
+import java.util.Locale;
+import java.util.function.Supplier;
+
 /**
- * Class used for log
+ * Class used for log.
+ * <p>The messages are written by a background thread (see {@link AsyncLogWriter}), so logging never blocks on
+ * the console or on the disk. Messages below the current level are dropped by a single comparison; the
+ * Supplier variants also skip building the message.</p>
+ * <p>Configured with the system properties: log.level (DEBUG, ERROR or OFF in any case, default DEBUG), log.console
+ * (default true) and log.file (default logs/remote-server.log, empty for no file).</p>
  */
 public class Log
 {
+    /**
+     * The log levels, from the most verbose
+     */
+    public enum Level
+    {
+        DEBUG,
+        ERROR,
+        OFF
+    }
+
+    private static final AsyncLogWriter writer = new AsyncLogWriter(System.getProperty("log.file", "logs/remote-server.log"),
+                                                                    Boolean.parseBoolean(System.getProperty("log.console", "true")));
+
+    private static volatile Level level = parseLevel(System.getProperty("log.level", Level.DEBUG.name()));
+
+    /**
+     * Read the level set in the configuration. An unknown level is reported and replaced by DEBUG,
+     * it must not stop the class from loading
+     *
+     * @param name The name of the level, in any case
+     * @return The level
+     */
+    private static Level parseLevel(String name)
+    {
+        try
+        {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            writer.write(Level.ERROR, "Log", "Unknown log.level: " + name + ", using " + Level.DEBUG);
+            return Level.DEBUG;
+        }
+    }
+
+    /**
+     * Change the log level
+     *
+     * @param newLevel The lowest level written
+     */
+    public static void setLevel(Level newLevel)
+    {
+        level = newLevel;
+    }
+
+    /**
+     * Checks if the debug messages are written. Used to skip the work needed only by the log
+     *
+     * @return true if the debug messages are written, or false otherwise
+     */
+    public static boolean isDebugEnabled()
+    {
+        return Level.DEBUG == level;
+    }
+
     /**
      * Debug log
      *
@@ -13,7 +76,24 @@ public class Log
      */
     public static void d(String tag, String message)
     {
-        System.out.println(tag + ": debug:" + tag + ":" + message);
+        if (Level.DEBUG == level)
+        {
+            writer.write(Level.DEBUG, tag, message);
+        }
+    }
+
+    /**
+     * Debug log, building the message only if it is written
+     *
+     * @param tag     The tag
+     * @param message The message supplier
+     */
+    public static void d(String tag, Supplier<String> message)
+    {
+        if (Level.DEBUG == level)
+        {
+            writer.write(Level.DEBUG, tag, message.get());
+        }
     }
 
     /**
@@ -24,6 +104,17 @@ public class Log
      */
     public static void e(String tag, String message)
     {
-        System.err.println("error:" + tag + ": " + message);
+        if (Level.OFF != level)
+        {
+            writer.write(Level.ERROR, tag, message);
+        }
+    }
+
+    /**
+     * Write the messages still queued. Used before the application exits
+     */
+    public static void flush()
+    {
+        writer.flush();
     }
 }
@@ -0,0 +1,246 @@
+package utils.net;
+
+import byteremote.server.ByteServer;
+import utils.log.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP server exposing an object with the byte-remote protocol, built on a NIO selector.
+ * <p>Same wire format as the ByteTCPServer of the library: each request and response is an int length
+ * followed by the serialized bytes, and the void methods have no response. A single selector thread reads and
+ * writes all the connections; the requests are processed by a small pool of workers, one request at a time per
+ * connection (the clients wait for each response).</p>
+ */
+public class NioByteServer implements ByteServer
+{
+    /* Log purpose */
+    private static final String TAG = "NioByteServer";
+
+    private static final int WORKER_THREADS = 8;
+
+    private Object              exposedObject  = null;
+    private ServerSocketChannel serverChannel  = null;
+    private Selector            selector       = null;
+    private Thread              selectorThread = null;
+    private ExecutorService     workers        = null;
+
+    /* Interest changes requested by the workers, applied by the selector thread */
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final Set<NioConnection>              connections   = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param exposedObject The object whose public methods are called by the clients
+     */
+    public NioByteServer(Object exposedObject)
+    {
+        this.exposedObject = exposedObject;
+    }
+
+    @Override
+    public void start(int port)
+            throws Exception
+    {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+
+        try
+        {
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(this.selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+
+            if (null != this.selector)
+            {
+                this.selector.close();
+                this.selector = null;
+            }
+
+            throw ex;
+        }
+
+        this.serverChannel  = channel;
+        this.workers        = Executors.newFixedThreadPool(WORKER_THREADS);
+        this.isRunning      = true;
+        this.selectorThread = new Thread(this::selectLoop, TAG);
+        this.selectorThread.start();
+        Log.d(TAG, "start: listening on port: " + port);
+    }
+
+    @Override
+    public void stop()
+            throws Exception
+    {
+        if (! this.isRunning)
+        {
+            return;
+        }
+
+        this.isRunning = false;
+        this.selector.wakeup();
+        this.selectorThread.join();
+
+        for (NioConnection connection : this.connections)
+        {
+            connection.close();
+        }
+
+        this.serverChannel.close();
+        this.selector.close();
+        this.workers.shutdown();
+
+        if (! this.workers.awaitTermination(1, TimeUnit.SECONDS))
+        {
+            this.workers.shutdownNow();
+        }
+
+        Log.d(TAG, "stop: server stopped");
+    }
+
+    /**
+     * Get the object called by the requests
+     *
+     * @return The exposed object
+     */
+    Object getExposedObject()
+    {
+        return this.exposedObject;
+    }
+
+    /**
+     * Process a request on a worker thread
+     *
+     * @param task The processing of the request
+     */
+    void execute(Runnable task)
+    {
+        this.workers.execute(task);
+    }
+
+    /**
+     * Run a task on the selector thread (used to change the interest of a key from a worker)
+     *
+     * @param task The task
+     */
+    void runOnSelector(Runnable task)
+    {
+        this.selectorTasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Forget a closed connection
+     *
+     * @param connection The connection
+     */
+    void remove(NioConnection connection)
+    {
+        this.connections.remove(connection);
+    }
+
+    /**
+     * The task which accepts the connections and does all the socket reads and writes
+     */
+    private void selectLoop()
+    {
+        Log.d(TAG, "selectLoop: started");
+
+        Runnable task = null;
+
+        while (this.isRunning)
+        {
+            try
+            {
+                this.selector.select();
+
+                while (null != (task = this.selectorTasks.poll()))
+                {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+
+                    keys.remove();
+
+                    if (! key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        this.accept();
+                    }
+                    else
+                    {
+                        NioConnection connection = (NioConnection)key.attachment();
+
+                        if (key.isReadable())
+                        {
+                            connection.onReadable();
+                        }
+
+                        if (key.isValid() && key.isWritable())
+                        {
+                            connection.onWritable();
+                        }
+                    }
+                }
+            }
+            catch (ClosedSelectorException ex)
+            {
+                break;
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+
+        Log.d(TAG, "selectLoop: finished");
+    }
+
+    /**
+     * Accept a new connection
+     *
+     * @throws IOException If the connection can not be configured
+     */
+    private void accept()
+            throws IOException
+    {
+        SocketChannel channel = this.serverChannel.accept();
+
+        if (null == channel)
+        {
+            return;
+        }
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        this.connections.add(new NioConnection(this, channel, channel.register(this.selector, SelectionKey.OP_READ)));
+        Log.d(TAG, "accept: " + channel.getRemoteAddress());
+    }
+}
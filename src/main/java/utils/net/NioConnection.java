@@ -0,0 +1,332 @@
+package utils.net;
+
+import byteremote.common.serialization.Serializer;
+import byteremote.server.handler.Request;
+import byteremote.server.handler.Response;
+import utils.log.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * A client connection of {@link NioByteServer}.
+ * <p>The selector thread reads a whole request, then the reads are suspended while a worker processes it and
+ * writes the response (the selector thread finishes the write if the socket buffer is full). The request array
+ * grows as the bytes arrive, so an announced length costs nothing until the bytes are received. It is reused for
+ * the next requests (the serializer copies the values out of it), unless it grew above MAX_KEPT_SIZE.</p>
+ * <p>byte[] results (screen frames, file chunks) skip the serializer: their header is written in the same
+ * gathering write as the result array itself, so the array is never copied on its way to the socket.</p>
+ */
+class NioConnection
+{
+    /* Log purpose */
+    private static final String TAG = "NioConnection";
+
+    /* Bigger requests close the connection */
+    private static final int  MAX_REQUEST_SIZE  = 64 * 1024 * 1024;
+    /* The request array starts at this size and doubles while the bytes arrive */
+    private static final int  MIN_REQUEST_SIZE  = 8 * 1024;
+    /* Bigger request arrays are released after their request */
+    private static final int  MAX_KEPT_SIZE     = 256 * 1024;
+    /* Serializer layout of a byte[] which is not null: marker, int length, bytes */
+    private static final byte NOT_NULL          = 0;
+    private static final int  BYTES_HEADER_SIZE = 1 + Integer.BYTES;
+
+    private NioByteServer server  = null;
+    private SocketChannel channel = null;
+    private SelectionKey  key     = null;
+
+    /* Used only by the selector thread while reading, and by the worker while processing */
+    private ByteBuffer requestHeader = null;
+    private byte[]     requestBytes  = new byte[0];
+    private ByteBuffer request       = null;
+    private int        requestLength = 0;
+
+    /* The headers and the body of the response, written with a single gathering write */
+    private ByteBuffer   responseHeader = null;
+    private ByteBuffer[] response       = null;
+
+    NioConnection(NioByteServer server, SocketChannel channel, SelectionKey key)
+    {
+        this.server         = server;
+        this.channel        = channel;
+        this.key            = key;
+        this.requestHeader  = ByteBuffer.allocate(Integer.BYTES);
+        this.responseHeader = ByteBuffer.allocate(Integer.BYTES + BYTES_HEADER_SIZE);
+        this.response       = new ByteBuffer[]{this.responseHeader, null};
+        this.key.attach(this);
+    }
+
+    /**
+     * Read the available bytes of the current request (selector thread)
+     */
+    void onReadable()
+    {
+        try
+        {
+            if (this.requestHeader.hasRemaining())
+            {
+                if (0 > this.channel.read(this.requestHeader))
+                {
+                    this.close();
+                    return;
+                }
+
+                if (this.requestHeader.hasRemaining())
+                {
+                    return;
+                }
+
+                this.startRequest(this.requestHeader.getInt(0));
+            }
+
+            while (this.request.position() < this.requestLength)
+            {
+                if (! this.request.hasRemaining())
+                {
+                    this.growRequest();
+                }
+
+                if (0 > this.channel.read(this.request))
+                {
+                    this.close();
+                    return;
+                }
+
+                if (this.request.hasRemaining())
+                {
+                    /* wait for the rest of the request */
+                    return;
+                }
+            }
+
+            /* one request at a time, the next one is read after the response */
+            this.key.interestOps(0);
+            this.server.execute(this::process);
+        }
+        catch (IOException ex)
+        {
+            Log.d(TAG, "onReadable: connection lost: " + ex.getMessage());
+            this.close();
+        }
+    }
+
+    /**
+     * Write the rest of the response (selector thread)
+     */
+    void onWritable()
+    {
+        try
+        {
+            this.channel.write(this.response);
+
+            if (! this.isResponsePending())
+            {
+                this.requestHeader.clear();
+                this.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        catch (IOException ex)
+        {
+            Log.d(TAG, "onWritable: connection lost: " + ex.getMessage());
+            this.close();
+        }
+    }
+
+    /**
+     * Close the connection
+     */
+    void close()
+    {
+        this.key.cancel();
+
+        try
+        {
+            this.channel.close();
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+
+        this.server.remove(this);
+    }
+
+    /**
+     * Prepare the buffer receiving a request
+     *
+     * @param length The length of the request
+     * @throws IOException If the length is invalid
+     */
+    private void startRequest(int length)
+            throws IOException
+    {
+        if (0 > length || MAX_REQUEST_SIZE < length)
+        {
+            throw new IOException("Invalid request length: " + length);
+        }
+
+        if (this.requestBytes.length < Math.min(length, MIN_REQUEST_SIZE))
+        {
+            this.requestBytes = new byte[Math.min(length, MIN_REQUEST_SIZE)];
+        }
+
+        this.requestLength = length;
+        this.request       = ByteBuffer.wrap(this.requestBytes, 0, Math.min(length, this.requestBytes.length));
+    }
+
+    /**
+     * Double the request array, the received bytes are kept
+     */
+    private void growRequest()
+    {
+        int position = this.request.position();
+        int size     = (int)Math.min(this.requestLength, 2L * this.requestBytes.length);
+
+        this.requestBytes = Arrays.copyOf(this.requestBytes, size);
+        this.request      = ByteBuffer.wrap(this.requestBytes, position, size - position);
+    }
+
+    /**
+     * Call the requested method and send its result (worker thread)
+     */
+    private void process()
+    {
+        try
+        {
+            Response result = this.call();
+
+            if (byte[].class == result.getType() && null != result.getValue())
+            {
+                this.sendBytes((byte[])result.getValue());
+                return;
+            }
+            else if (Void.TYPE != result.getType())
+            {
+                this.sendSerialized(Serializer.serialize(result.getValue()));
+                return;
+            }
+        }
+        catch (IOException ex)
+        {
+            Log.d(TAG, "process: connection lost: " + ex.getMessage());
+            this.close();
+            return;
+        }
+        catch (Exception ex)
+        {
+            /* as the library server, no response is sent */
+            ex.printStackTrace();
+        }
+
+        this.server.runOnSelector(this::resumeReading);
+    }
+
+    /**
+     * Call the requested method, then release the request array if it is too big to be kept (worker thread)
+     *
+     * @return The result of the method
+     * @throws Exception If the request is invalid or the method fails
+     */
+    private Response call()
+            throws Exception
+    {
+        try
+        {
+            /* the bytes after the request are never read, the array may be longer */
+            return Request.process(this.server.getExposedObject(), this.requestBytes);
+        }
+        finally
+        {
+            if (MAX_KEPT_SIZE < this.requestBytes.length)
+            {
+                this.requestBytes = new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Write a response serialized by the library
+     *
+     * @param body The serialized response
+     * @throws IOException If the connection is lost
+     */
+    private void sendSerialized(ByteBuffer body)
+            throws IOException
+    {
+        this.responseHeader.clear();
+        this.responseHeader.putInt(body.remaining()).flip();
+        this.send(body);
+    }
+
+    /**
+     * Write a byte[] response straight from the array, framed as the library serializer would do
+     *
+     * @param bytes The result
+     * @throws IOException If the connection is lost
+     */
+    private void sendBytes(byte[] bytes)
+            throws IOException
+    {
+        this.responseHeader.clear();
+        this.responseHeader.putInt(BYTES_HEADER_SIZE + bytes.length).put(NOT_NULL).putInt(bytes.length).flip();
+        this.send(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Write the prepared header and the body, leaving the rest to the selector thread if the socket buffer is full
+     *
+     * @param body The body of the response
+     * @throws IOException If the connection is lost
+     */
+    private void send(ByteBuffer body)
+            throws IOException
+    {
+        this.response[1] = body;
+        this.channel.write(this.response);
+
+        if (this.isResponsePending())
+        {
+            this.server.runOnSelector(() -> this.setInterest(SelectionKey.OP_WRITE));
+        }
+        else
+        {
+            this.server.runOnSelector(this::resumeReading);
+        }
+    }
+
+    /**
+     * Checks if a part of the response is not written yet
+     *
+     * @return true if some bytes are left, or false otherwise
+     */
+    private boolean isResponsePending()
+    {
+        return this.response[0].hasRemaining() || this.response[1].hasRemaining();
+    }
+
+    /**
+     * Wait for the next request (selector thread)
+     */
+    private void resumeReading()
+    {
+        this.requestHeader.clear();
+        this.setInterest(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Change the interest of the key if the connection is still open (selector thread)
+     *
+     * @param interestOps The operations
+     */
+    private void setInterest(int interestOps)
+    {
+        if (this.key.isValid())
+        {
+            this.key.interestOps(interestOps);
+        }
+    }
+}
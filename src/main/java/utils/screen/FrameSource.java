@@ -0,0 +1,41 @@
+package utils.screen;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * The source of the frames captured by the screen shot pipeline
+ * <p>Info: capture() is called only from the capture worker. Each returned image is owned by the caller</p>
+ */
+public interface FrameSource
+{
+    /**
+     * Get the area which can be captured
+     *
+     * @return The bounds, in the coordinates used by capture()
+     */
+    public Rectangle getBounds();
+
+    /**
+     * Get the area captured when no region is selected
+     *
+     * @return The default region
+     */
+    public Rectangle getDefaultRegion();
+
+    /**
+     * Capture a new frame
+     *
+     * @param region The area to be captured (inside the bounds)
+     * @return A new image with the size of the region
+     * @throws IOException If the frame can not be captured
+     */
+    public BufferedImage capture(Rectangle region)
+            throws IOException;
+
+    /**
+     * Free the resources used by the source
+     */
+    public void close();
+}
@@ -0,0 +1,167 @@
+package utils.screen;
+
+import utils.log.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame source which replays (in a loop) frames recorded in a file.
+ * <p>File layout: a sequence of [int length][byte[length] image], each image in a format known by ImageIO</p>
+ */
+public class RecordedFrameSource implements FrameSource
+{
+    /* Log purpose */
+    private static final String TAG = "RecordedFrameSource";
+
+    private List<byte[]> frames = null;
+    private Rectangle    bounds = null;
+    private int          index  = 0;
+
+    /**
+     * Load all the frames of a recording. The frames are kept compressed and decoded when captured
+     *
+     * @param file The recording
+     * @throws IOException If the file can not be read or it contains no frame
+     */
+    public RecordedFrameSource(File file)
+            throws IOException
+    {
+        this.frames = new ArrayList<>();
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            byte[] bytes = null;
+
+            while (null != (bytes = readFrame(input)))
+            {
+                this.frames.add(bytes);
+            }
+        }
+
+        if (this.frames.isEmpty())
+        {
+            throw new IOException("No frame recorded in " + file);
+        }
+
+        BufferedImage first = decode(this.frames.get(0));
+
+        this.bounds = new Rectangle(first.getWidth(), first.getHeight());
+        Log.d(TAG, "RecordedFrameSource: " + this.frames.size() + " frames loaded from " + file);
+    }
+
+    /**
+     * Record frames from another source
+     *
+     * @param source The source
+     * @param region The captured region
+     * @param count  The number of frames
+     * @param file   The recording
+     * @throws IOException If a frame can not be captured or written
+     */
+    public static void record(FrameSource source, Rectangle region, int count, File file)
+            throws IOException
+    {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            for (int i = 0; i < count; ++ i)
+            {
+                bytes.reset();
+                ImageIO.write(source.capture(region), "png", bytes);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            }
+        }
+    }
+
+    @Override
+    public Rectangle getBounds()
+    {
+        return new Rectangle(this.bounds);
+    }
+
+    @Override
+    public Rectangle getDefaultRegion()
+    {
+        return new Rectangle(this.bounds);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle region)
+            throws IOException
+    {
+        BufferedImage frame   = decode(this.frames.get(this.index));
+        BufferedImage image   = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D    graph2D = image.createGraphics();
+
+        graph2D.drawImage(frame, - region.x, - region.y, null);
+        graph2D.dispose();
+
+        this.index = (this.index + 1) % this.frames.size();
+        return image;
+    }
+
+    @Override
+    public void close()
+    {
+        this.frames.clear();
+    }
+
+    /**
+     * Read the next frame of a recording
+     *
+     * @param input The recording
+     * @return The compressed frame or null at the end of the recording
+     * @throws IOException If the frame can not be read
+     */
+    private static byte[] readFrame(DataInputStream input)
+            throws IOException
+    {
+        byte[] bytes  = null;
+        int    length = 0;
+
+        try
+        {
+            length = input.readInt();
+        }
+        catch (EOFException ex)
+        {
+            return null;
+        }
+
+        if (0 > length)
+        {
+            throw new IOException("Invalid frame length: " + length);
+        }
+
+        bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decode a recorded frame
+     *
+     * @param bytes The compressed frame
+     * @return The image
+     * @throws IOException If the image could not be decoded
+     */
+    private static BufferedImage decode(byte[] bytes)
+            throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+
+        if (null == image)
+        {
+            throw new IOException("Unknown image format");
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,50 @@
+package utils.screen;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Frame source which captures the real screen with {@link Robot}
+ */
+public class RobotFrameSource implements FrameSource
+{
+    private Robot robot = null;
+
+    @Override
+    public Rectangle getBounds()
+    {
+        return ScreenGeometry.getInstance().getVirtualBounds();
+    }
+
+    @Override
+    public Rectangle getDefaultRegion()
+    {
+        return ScreenGeometry.getInstance().getPrimaryBounds();
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle region)
+            throws IOException
+    {
+        if (null == this.robot)
+        {
+            try
+            {
+                this.robot = new Robot();
+            }
+            catch (AWTException ex)
+            {
+                throw new IOException("The screen can not be captured", ex);
+            }
+        }
+
+        return this.robot.createScreenCapture(region);
+    }
+
+    @Override
+    public void close()
+    {
+        this.robot = null;
+    }
+}
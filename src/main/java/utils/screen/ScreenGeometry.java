@@ -0,0 +1,183 @@
+package utils.screen;
+
+import utils.log.Log;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to query the layout of the displays attached to the machine.
+ * <p>Querying the displays goes to the windowing system, so the layout is cached and queried again only when
+ * it is older than REFRESH_INTERVAL (AWT has no public notification for display changes). The returned
+ * rectangles are copies and may be changed by the caller.</p>
+ * <p>Info: the bounds are in the logical coordinates used by Robot (mouse moves and screen captures),
+ * so the HiDPI scale factors of the monitors are handled by AWT and never applied here</p>
+ */
+public class ScreenGeometry
+{
+    /* Log purpose */
+    private static final String TAG = "ScreenGeometry";
+
+    private static final ScreenGeometry instance = new ScreenGeometry();
+
+    /* Displays added, removed or moved are seen after at most this time */
+    private static final long REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    private volatile Layout layout = null;
+
+    /**
+     * Immutable snapshot of the displays
+     */
+    private static class Layout
+    {
+        /* The default monitor is the first one */
+        private final Rectangle[] monitors;
+        private final Rectangle   virtualBounds;
+        private final long        loadTime;
+
+        private Layout(Rectangle[] monitors, long loadTime)
+        {
+            Rectangle virtualBounds = new Rectangle();
+
+            for (Rectangle bounds : monitors)
+            {
+                virtualBounds = virtualBounds.isEmpty() ? new Rectangle(bounds) : virtualBounds.union(bounds);
+            }
+
+            this.monitors      = monitors;
+            this.virtualBounds = virtualBounds;
+            this.loadTime      = loadTime;
+        }
+    }
+
+    /**
+     * Singleton private constructor
+     */
+    private ScreenGeometry()
+    {
+    }
+
+    /**
+     * Get the singleton instance
+     *
+     * @return The instance
+     */
+    public static ScreenGeometry getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Get the bounds of each monitor in the virtual screen coordinates. The default monitor is the first one.
+     *
+     * @return The monitor bounds
+     */
+    public Rectangle[] getMonitorBounds()
+    {
+        Rectangle[] monitors = this.getLayout().monitors;
+        Rectangle[] bounds   = new Rectangle[monitors.length];
+
+        for (int i = 0; i < monitors.length; ++ i)
+        {
+            bounds[i] = new Rectangle(monitors[i]);
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Get the bounds of the default monitor
+     *
+     * @return The bounds
+     */
+    public Rectangle getPrimaryBounds()
+    {
+        return new Rectangle(this.getLayout().monitors[0]);
+    }
+
+    /**
+     * Get the union of all the monitor bounds
+     *
+     * @return The bounds of the virtual screen
+     */
+    public Rectangle getVirtualBounds()
+    {
+        return new Rectangle(this.getLayout().virtualBounds);
+    }
+
+    /**
+     * Query the displays now, without waiting for the cached layout to expire
+     */
+    public void refresh()
+    {
+        this.load(null);
+    }
+
+    /**
+     * Get the cached layout, loading it again if it expired
+     *
+     * @return The layout
+     */
+    private Layout getLayout()
+    {
+        Layout current = this.layout;
+
+        if (null == current || System.nanoTime() - current.loadTime > REFRESH_INTERVAL)
+        {
+            current = this.load(current);
+        }
+
+        return current;
+    }
+
+    /**
+     * Query the displays and replace the cached layout
+     *
+     * @param expired The layout seen as expired by the caller, or null to load the layout in any case
+     * @return The new layout
+     */
+    private synchronized Layout load(Layout expired)
+    {
+        Layout previous = this.layout;
+
+        if (null != expired && expired != previous)
+        {
+            /* another thread loaded it meanwhile */
+            return previous;
+        }
+
+        GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        GraphicsDevice      primary     = environment.getDefaultScreenDevice();
+        GraphicsDevice[]    devices     = environment.getScreenDevices();
+        Rectangle[]         monitors    = new Rectangle[devices.length];
+        int                 index       = 1;
+
+        monitors[0] = primary.getDefaultConfiguration().getBounds();
+
+        for (GraphicsDevice device : devices)
+        {
+            if (device != primary)
+            {
+                monitors[index ++] = device.getDefaultConfiguration().getBounds();
+            }
+        }
+
+        this.layout = new Layout(monitors, System.nanoTime());
+
+        if (null == previous || ! Arrays.equals(previous.monitors, monitors))
+        {
+            StringBuilder description = new StringBuilder();
+
+            for (int i = 0; i < monitors.length; ++ i)
+            {
+                description.append(" [").append(monitors[i].x).append(", ").append(monitors[i].y).append(", ")
+                           .append(monitors[i].width).append("x").append(monitors[i].height).append("]");
+            }
+
+            Log.d(TAG, "load: display layout:" + description);
+        }
+
+        return this.layout;
+    }
+}
@@ -0,0 +1,178 @@
+package utils.screen;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Frame source which generates reproducible frames, without a display.
+ * Used to exercise and benchmark the screen shot pipeline on headless machines.
+ */
+public class SyntheticFrameSource implements FrameSource
+{
+    /**
+     * The generated content
+     */
+    public enum Pattern
+    {
+        /* A page of text which scrolls up a few lines each frame (few tiles stay unchanged) */
+        SCROLLING_TEXT,
+        /* Every pixel changes each frame, the worst case for the encoder */
+        NOISE,
+        /* A desktop which never changes */
+        STATIC
+    }
+
+    private static final int  LINE_HEIGHT  = 16;
+    private static final int  SCROLL_STEP  = 3 * LINE_HEIGHT;
+    private static final long INITIAL_SEED = 0x5DEECE66DL;
+
+    private Pattern       pattern = null;
+    private Rectangle     bounds  = null;
+    /* The pre rendered content, the frames are copied from it */
+    private BufferedImage content = null;
+    private long          frame   = 0;
+    private long          seed    = INITIAL_SEED;
+
+    public SyntheticFrameSource(Pattern pattern, int width, int height)
+    {
+        this.pattern = pattern;
+        this.bounds  = new Rectangle(width, height);
+
+        if (Pattern.SCROLLING_TEXT == pattern)
+        {
+            this.content = renderText(width, height);
+        }
+        else if (Pattern.STATIC == pattern)
+        {
+            this.content = renderDesktop(width, height);
+        }
+    }
+
+    @Override
+    public Rectangle getBounds()
+    {
+        return new Rectangle(this.bounds);
+    }
+
+    @Override
+    public Rectangle getDefaultRegion()
+    {
+        return new Rectangle(this.bounds);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle region)
+    {
+        BufferedImage image  = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+        int           offset = 0;
+
+        if (Pattern.NOISE == this.pattern)
+        {
+            this.fillNoise(((DataBufferInt)image.getRaster().getDataBuffer()).getData());
+        }
+        else
+        {
+            if (Pattern.SCROLLING_TEXT == this.pattern)
+            {
+                offset = (int)((this.frame * SCROLL_STEP) % Math.max(1, (this.bounds.height / LINE_HEIGHT) * LINE_HEIGHT));
+            }
+
+            Graphics2D graph2D = image.createGraphics();
+            graph2D.drawImage(this.content, - region.x, - region.y - offset, null);
+            graph2D.dispose();
+        }
+
+        ++ this.frame;
+        return image;
+    }
+
+    @Override
+    public void close()
+    {
+        this.content = null;
+    }
+
+    /**
+     * Fill the pixels with pseudo random values (xorshift, the same sequence on each run)
+     *
+     * @param pixels The pixels
+     */
+    private void fillNoise(int[] pixels)
+    {
+        long value = this.seed;
+
+        for (int i = 0; i < pixels.length; ++ i)
+        {
+            value ^= value << 13;
+            value ^= value >>> 7;
+            value ^= value << 17;
+            pixels[i] = (int)value & 0xFFFFFF;
+        }
+
+        this.seed = value;
+    }
+
+    /**
+     * Render a page of text twice as high as the frames, so each scrolled frame can be copied without wrapping.
+     * The text repeats after the lines which fit in a frame.
+     *
+     * @param width  The frame width
+     * @param height The frame height
+     * @return The page
+     */
+    private static BufferedImage renderText(int width, int height)
+    {
+        BufferedImage page    = new BufferedImage(width, 2 * height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D    graph2D = page.createGraphics();
+        int           lines   = Math.max(1, height / LINE_HEIGHT);
+
+        graph2D.setColor(Color.WHITE);
+        graph2D.fillRect(0, 0, width, 2 * height);
+        graph2D.setColor(Color.BLACK);
+        graph2D.setFont(new Font(Font.MONOSPACED, Font.PLAIN, LINE_HEIGHT - 4));
+
+        for (int y = LINE_HEIGHT; y < 2 * height + LINE_HEIGHT; y += LINE_HEIGHT)
+        {
+            int line = (y / LINE_HEIGHT - 1) % lines;
+
+            graph2D.drawString(line + ": public void line" + line + "() { return this.value * " + line + "; }",
+                               8, y - 4);
+        }
+
+        graph2D.dispose();
+        return page;
+    }
+
+    /**
+     * Render a desktop with a few windows
+     *
+     * @param width  The desktop width
+     * @param height The desktop height
+     * @return The desktop
+     */
+    private static BufferedImage renderDesktop(int width, int height)
+    {
+        BufferedImage desktop = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D    graph2D = desktop.createGraphics();
+
+        graph2D.setPaint(new GradientPaint(0, 0, new Color(0x1E3A5F), width, height, new Color(0x4F7CAC)));
+        graph2D.fillRect(0, 0, width, height);
+
+        for (int i = 0; i < 3; ++ i)
+        {
+            int x = width / 8 + i * width / 5;
+            int y = height / 8 + i * height / 6;
+
+            graph2D.setColor(Color.LIGHT_GRAY);
+            graph2D.fillRect(x, y, width / 2, height / 2);
+            graph2D.setColor(Color.DARK_GRAY);
+            graph2D.fillRect(x, y, width / 2, 24);
+            graph2D.setColor(Color.WHITE);
+            graph2D.drawString("Window " + i, x + 8, y + 16);
+        }
+
+        graph2D.dispose();
+        return desktop;
+    }
+}
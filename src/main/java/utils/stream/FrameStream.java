@@ -0,0 +1,185 @@
+package utils.stream;
+
+import utils.image.Frame;
+import utils.image.FrameMailbox;
+import utils.log.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A connection on which the encoded frames are pushed to one client.
+ * <p>Server to client: int length, long sequence, byte[length] frame.
+ * Client to server: long sequence of the last frame processed (cumulative acknowledgement).</p>
+ * <p>At most window frames are sent without being acknowledged. When the client is slower, only the
+ * newest frame is kept.</p>
+ */
+class FrameStream implements Consumer<Frame<byte[]>>
+{
+    /* Log purpose */
+    private static final String TAG = "FrameStream";
+
+    private final FrameMailbox<byte[]> frames   = new FrameMailbox<>();
+    private final ArrayDeque<Long>     inFlight = new ArrayDeque<>();
+
+    private Socket                socket     = null;
+    private Semaphore             window     = null;
+    private Runnable              onActivity = null;
+    private Consumer<FrameStream> onClose    = null;
+    private DataInputStream       input      = null;
+    private DataOutputStream      output     = null;
+    private Thread                sender     = null;
+    private Thread                reader     = null;
+
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param socket     The connected socket
+     * @param window     The maximum number of frames not acknowledged
+     * @param onActivity Called on each acknowledgement received
+     * @param onClose    Called once with this stream when it is closed
+     * @throws IOException If the socket streams can not be opened
+     */
+    FrameStream(Socket socket, int window, Runnable onActivity, Consumer<FrameStream> onClose)
+            throws IOException
+    {
+        this.socket     = socket;
+        this.window     = new Semaphore(window);
+        this.onActivity = onActivity;
+        this.onClose    = onClose;
+        this.input      = new DataInputStream(socket.getInputStream());
+        this.output     = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Start pushing frames
+     */
+    void start()
+    {
+        this.isRunning = true;
+        this.sender    = new Thread(this::sendFrames, TAG + "-sender");
+        this.reader    = new Thread(this::readAcknowledgements, TAG + "-reader");
+        this.sender.start();
+        this.reader.start();
+    }
+
+    /**
+     * Offer a newly encoded frame, replacing the one not sent yet
+     *
+     * @param frame The encoded frame
+     */
+    @Override
+    public void accept(Frame<byte[]> frame)
+    {
+        this.frames.put(frame);
+    }
+
+    /**
+     * Stop pushing frames and close the connection
+     */
+    void close()
+    {
+        synchronized (this)
+        {
+            if (! this.isRunning)
+            {
+                return;
+            }
+
+            this.isRunning = false;
+        }
+
+        try
+        {
+            this.socket.close();
+        }
+        catch (IOException ex)
+        {
+            ex.printStackTrace();
+        }
+
+        this.sender.interrupt();
+        this.onClose.accept(this);
+    }
+
+    /**
+     * The task which sends the frames while the window allows it
+     */
+    private void sendFrames()
+    {
+        Log.d(TAG, "sendFrames: started");
+
+        try
+        {
+            while (this.isRunning)
+            {
+                this.window.acquire();
+
+                Frame<byte[]> frame = this.frames.take();
+
+                synchronized (this.inFlight)
+                {
+                    this.inFlight.add(frame.getSequence());
+                }
+
+                this.output.writeInt(frame.getValue().length);
+                this.output.writeLong(frame.getSequence());
+                this.output.write(frame.getValue());
+                this.output.flush();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            /* Preserve interrupt status */
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException ex)
+        {
+            Log.d(TAG, "sendFrames: connection lost: " + ex.getMessage());
+        }
+
+        this.close();
+        Log.d(TAG, "sendFrames: finished");
+    }
+
+    /**
+     * The task which reads the acknowledgements and opens the window
+     */
+    private void readAcknowledgements()
+    {
+        try
+        {
+            while (this.isRunning)
+            {
+                long acknowledged = this.input.readLong();
+                int  released     = 0;
+
+                /* the acknowledgements keep the client alive without other requests */
+                this.onActivity.run();
+
+                synchronized (this.inFlight)
+                {
+                    while (! this.inFlight.isEmpty() && this.inFlight.peek() <= acknowledged)
+                    {
+                        this.inFlight.poll();
+                        ++ released;
+                    }
+                }
+
+                this.window.release(released);
+            }
+        }
+        catch (IOException ex)
+        {
+            Log.d(TAG, "readAcknowledgements: connection lost: " + ex.getMessage());
+        }
+
+        this.close();
+    }
+}
@@ -0,0 +1,268 @@
+package utils.stream;
+
+import utils.image.ScreenShotHandler;
+import utils.log.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class used to push the encoded frames to the clients over dedicated TCP connections.
+ * <p>A client asks for a stream (through IControl.startStream), then connects to the returned port and
+ * sends its token (int) to be associated with that stream. The tokens are read by a small pool of handshake
+ * threads, so a connection which sends nothing never delays the others.</p>
+ */
+public class FrameStreamServer
+{
+    /* Log purpose */
+    private static final String TAG = "FrameStreamServer";
+
+    /* Time given to a new connection to send its token */
+    private static final int HANDSHAKE_TIMEOUT = 2000;
+    /* Connections waiting for their token, more are closed */
+    private static final int MAX_HANDSHAKES    = 16;
+
+    private final ConcurrentHashMap<Integer, Pending>     pendingStreams = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, FrameStream> streams        = new ConcurrentHashMap<>();
+
+    private ScreenShotHandler  screenShotHandler = null;
+    private ServerSocket       serverSocket      = null;
+    private Thread             acceptThread      = null;
+    private ThreadPoolExecutor handshakes        = null;
+
+    /**
+     * A stream requested by a client which did not connect yet
+     */
+    private static class Pending
+    {
+        private final int      window;
+        private final Runnable onActivity;
+
+        private Pending(int window, Runnable onActivity)
+        {
+            this.window     = window;
+            this.onActivity = onActivity;
+        }
+    }
+
+    public FrameStreamServer(ScreenShotHandler screenShotHandler)
+    {
+        this.screenShotHandler = screenShotHandler;
+    }
+
+    /**
+     * Prepare a stream for a client
+     *
+     * @param token      The client token, which must be sent first on the connection
+     * @param window     The maximum number of frames sent without acknowledgement
+     * @param onActivity Called on each acknowledgement of the client (from the stream reader thread)
+     * @return The port on which the client must connect
+     * @throws IOException If the server socket can not be opened
+     */
+    public synchronized int open(int token, int window, Runnable onActivity)
+            throws IOException
+    {
+        if (null == this.serverSocket)
+        {
+            this.serverSocket = new ServerSocket(0);
+            this.handshakes   = new ThreadPoolExecutor(0, MAX_HANDSHAKES, HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS,
+                                                       new SynchronousQueue<>());
+            this.acceptThread = new Thread(this::acceptConnections, TAG);
+            this.acceptThread.start();
+            Log.d(TAG, "open: listening on port: " + this.serverSocket.getLocalPort());
+        }
+
+        this.pendingStreams.put(token, new Pending(window, onActivity));
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * Close the stream of a client
+     *
+     * @param token The client token
+     */
+    public void close(int token)
+    {
+        FrameStream stream = this.streams.get(token);
+
+        this.pendingStreams.remove(token);
+
+        if (null != stream)
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Close all the streams and the server socket
+     */
+    public synchronized void destroy()
+    {
+        if (null != this.serverSocket)
+        {
+            try
+            {
+                this.serverSocket.close();
+                this.acceptThread.join();
+                /* The pending handshakes end in at most HANDSHAKE_TIMEOUT, wait them so they attach no stream later */
+                this.handshakes.shutdown();
+                this.handshakes.awaitTermination(2 * HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            catch (IOException ex)
+            {
+                ex.printStackTrace();
+            }
+            catch (InterruptedException ex)
+            {
+                /* Preserve interrupt status */
+                Thread.currentThread().interrupt();
+            }
+
+            this.serverSocket = null;
+        }
+
+        for (Integer token : this.streams.keySet())
+        {
+            this.close(token);
+        }
+    }
+
+    /**
+     * The task which accepts the stream connections
+     */
+    private void acceptConnections()
+    {
+        Log.d(TAG, "acceptConnections: started");
+
+        while (! this.serverSocket.isClosed())
+        {
+            try
+            {
+                this.handshake(this.serverSocket.accept());
+            }
+            catch (IOException ex)
+            {
+                if (! this.serverSocket.isClosed())
+                {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        Log.d(TAG, "acceptConnections: finished");
+    }
+
+    /**
+     * Give a new connection to a handshake thread, or close it if they are all busy
+     *
+     * @param socket The new connection
+     * @throws IOException If the connection can not be closed
+     */
+    private void handshake(Socket socket)
+            throws IOException
+    {
+        try
+        {
+            this.handshakes.execute(() ->
+                                        {
+                                            try
+                                            {
+                                                this.attach(socket);
+                                            }
+                                            catch (IOException ex)
+                                            {
+                                                Log.d(TAG, "handshake: failed: " + ex.getMessage());
+                                            }
+                                        });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            Log.e(TAG, "handshake: too many pending connections");
+            socket.close();
+        }
+    }
+
+    /**
+     * Read the token of a new connection and attach it to the pending stream
+     *
+     * @param socket The new connection
+     * @throws IOException If the token can not be read
+     */
+    private void attach(Socket socket)
+            throws IOException
+    {
+        int     token   = this.readToken(socket);
+        Pending pending = this.pendingStreams.remove(token);
+
+        if (null == pending)
+        {
+            Log.e(TAG, "attach: no stream requested for token: " + token);
+            socket.close();
+            return;
+        }
+
+        socket.setSoTimeout(0);
+
+        FrameStream stream   = new FrameStream(socket, pending.window, pending.onActivity,
+                                                 closed -> this.detach(token, closed));
+        FrameStream previous = this.streams.put(token, stream);
+
+        if (null != previous)
+        {
+            previous.close();
+        }
+
+        stream.start();
+        this.screenShotHandler.addFrameListener(stream);
+
+        if (! this.screenShotHandler.isStarted())
+        {
+            this.screenShotHandler.start();
+        }
+
+        Log.d(TAG, "attach: stream started for token: " + token + ", window: " + pending.window);
+    }
+
+    /**
+     * Read the token sent by the client on a new connection
+     *
+     * @param socket The new connection
+     * @return The token
+     * @throws IOException If the token is not received in time (the socket is closed)
+     */
+    private int readToken(Socket socket)
+            throws IOException
+    {
+        try
+        {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            return new DataInputStream(socket.getInputStream()).readInt();
+        }
+        catch (IOException ex)
+        {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Forget a closed stream
+     *
+     * @param token  The client token
+     * @param stream The closed stream
+     */
+    private void detach(int token, FrameStream stream)
+    {
+        this.screenShotHandler.removeFrameListener(stream);
+        this.streams.remove(token, stream);
+        Log.d(TAG, "detach: stream closed for token: " + token);
+    }
+}